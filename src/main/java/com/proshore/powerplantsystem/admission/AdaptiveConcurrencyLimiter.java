@@ -0,0 +1,122 @@
+package com.proshore.powerplantsystem.admission;
+
+import com.proshore.powerplantsystem.exceptions.ServiceOverloadedException;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The AdaptiveConcurrencyLimiter class bounds the number of concurrent requests of one endpoint.
+ * Requests over the limit wait in a bounded queue for a limited time and are rejected with a
+ * ServiceOverloadedException once the queue is full or the wait times out.
+ * <p>
+ * The limit adapts to observed latency using additive increase / multiplicative decrease: a request slower
+ * than the target latency shrinks the limit by ten percent, while fast requests completing with the limit
+ * saturated grow it by one per limit's worth of requests. The limit shrinks at most once per round trip:
+ * only requests admitted after the last decrease can decrease it again, so a burst of slow requests admitted
+ * together counts as one congestion signal.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private static final double BACKOFF_RATIO = 0.9;
+
+	private final String name;
+
+	private final AdmissionControlProperties.Limit settings;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition permitReleased = lock.newCondition();
+
+	private double limit;
+
+	private int inFlight;
+
+	private int waiting;
+
+	private long lastDecreaseNanos;
+
+	public AdaptiveConcurrencyLimiter(String name, AdmissionControlProperties.Limit settings) {
+		this.name = name;
+		this.settings = settings;
+		this.limit = Math.max(settings.getMinLimit(), Math.min(settings.getMaxLimit(), settings.getInitialLimit()));
+		this.lastDecreaseNanos = System.nanoTime();
+	}
+
+	/**
+	 * Admits a request, waiting in the queue if the limit is reached.
+	 * @return The start time of the admitted request, to be passed to release.
+	 * @throws ServiceOverloadedException if the queue is full or no permit became available in time.
+	 */
+	public long acquire() {
+		long deadline = System.nanoTime() + settings.getMaxWait().toNanos();
+		lock.lock();
+		try {
+			if (inFlight >= currentLimit()) {
+				if (waiting >= settings.getMaxQueue()) {
+					throw overloaded();
+				}
+				waiting++;
+				try {
+					while (inFlight >= currentLimit()) {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							throw overloaded();
+						}
+						permitReleased.awaitNanos(remaining);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw overloaded();
+				} finally {
+					waiting--;
+				}
+			}
+			inFlight++;
+			return System.nanoTime();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases the permit of a completed request and adapts the limit to its latency.
+	 * @param startNanos The value returned by acquire for the request.
+	 */
+	public void release(long startNanos) {
+		long latency = System.nanoTime() - startNanos;
+		lock.lock();
+		try {
+			boolean saturated = inFlight >= currentLimit() || waiting > 0;
+			inFlight--;
+			if (latency > settings.getTargetLatency().toNanos()) {
+				// Requests admitted before the last decrease already ran against the larger limit
+				if (startNanos - lastDecreaseNanos >= 0) {
+					limit = Math.max(settings.getMinLimit(), limit * BACKOFF_RATIO);
+					lastDecreaseNanos = System.nanoTime();
+				}
+			} else if (saturated) {
+				limit = Math.min(settings.getMaxLimit(), limit + 1.0 / limit);
+			}
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int currentLimit() {
+		return (int) limit;
+	}
+
+	public int inFlight() {
+		return inFlight;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	private ServiceOverloadedException overloaded() {
+		return new ServiceOverloadedException(name, Math.max(1, settings.getRetryAfter().toSeconds()));
+	}
+}
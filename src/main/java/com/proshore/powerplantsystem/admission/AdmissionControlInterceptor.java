@@ -0,0 +1,93 @@
+package com.proshore.powerplantsystem.admission;
+
+import com.proshore.powerplantsystem.exceptions.ServiceOverloadedException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The AdmissionControlInterceptor class admits requests to endpoints marked with AdmissionControlled
+ * through the AdaptiveConcurrencyLimiter of their limit name. Rejections surface as a
+ * ServiceOverloadedException, which the GlobalExceptionHandler turns into a 503 with Retry-After.
+ * <p>
+ * A request that starts asynchronous processing, e.g. a Server-Sent Events stream, releases its permit once
+ * the handler returns, and the dispatch completing it is not admission controlled again.
+ */
+@Component
+public class AdmissionControlInterceptor implements AsyncHandlerInterceptor {
+
+	private static final String PERMIT_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".permit";
+
+	private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+	private final AdmissionControlProperties admissionControlProperties;
+
+	private final MeterRegistry meterRegistry;
+
+	public AdmissionControlInterceptor(final AdmissionControlProperties admissionControlProperties, final MeterRegistry meterRegistry) {
+		this.admissionControlProperties = admissionControlProperties;
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (!admissionControlProperties.isEnabled() || request.getDispatcherType() == DispatcherType.ASYNC
+				|| !(handler instanceof HandlerMethod handlerMethod)) {
+			return true;
+		}
+		AdmissionControlled admissionControlled = handlerMethod.getMethodAnnotation(AdmissionControlled.class);
+		if (admissionControlled == null) {
+			return true;
+		}
+		AdaptiveConcurrencyLimiter limiter = limiters.computeIfAbsent(admissionControlled.value(), this::createLimiter);
+		try {
+			long startNanos = limiter.acquire();
+			request.setAttribute(PERMIT_ATTRIBUTE, new Permit(limiter, startNanos));
+			return true;
+		} catch (ServiceOverloadedException e) {
+			meterRegistry.counter("admission.rejected", "endpoint", limiter.getName()).increment();
+			throw e;
+		}
+	}
+
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		release(request);
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		release(request);
+	}
+
+	private void release(HttpServletRequest request) {
+		if (request.getAttribute(PERMIT_ATTRIBUTE) instanceof Permit permit) {
+			request.removeAttribute(PERMIT_ATTRIBUTE);
+			permit.limiter().release(permit.startNanos());
+		}
+	}
+
+	private AdaptiveConcurrencyLimiter createLimiter(String name) {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(name, admissionControlProperties.getLimit(name));
+		Gauge.builder("admission.limit", limiter, AdaptiveConcurrencyLimiter::currentLimit)
+				.description("Current adaptive concurrency limit of the endpoint")
+				.tag("endpoint", name)
+				.register(meterRegistry);
+		Gauge.builder("admission.in.flight", limiter, AdaptiveConcurrencyLimiter::inFlight)
+				.description("Requests currently admitted to the endpoint")
+				.tag("endpoint", name)
+				.register(meterRegistry);
+		return limiter;
+	}
+
+	private record Permit(AdaptiveConcurrencyLimiter limiter, long startNanos) {
+	}
+}
@@ -0,0 +1,58 @@
+package com.proshore.powerplantsystem.admission;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Concurrency limits of the endpoints marked with AdmissionControlled, keyed by limit name.
+ * Endpoints without an entry use the default Limit values.
+ */
+@Data
+@ConfigurationProperties(prefix = "admission")
+public class AdmissionControlProperties {
+
+	private boolean enabled = true;
+
+	private Map<String, Limit> endpoints = new HashMap<>();
+
+	public Limit getLimit(String name) {
+		return endpoints.getOrDefault(name, new Limit());
+	}
+
+	@Data
+	public static class Limit {
+
+		/**
+		 * Concurrent requests admitted before the limit has adapted to observed latency.
+		 */
+		private int initialLimit = 8;
+
+		private int minLimit = 1;
+
+		private int maxLimit = 32;
+
+		/**
+		 * Requests allowed to wait for a permit once the limit is reached; further requests are rejected.
+		 */
+		private int maxQueue = 16;
+
+		/**
+		 * How long a queued request waits for a permit before it is rejected.
+		 */
+		private Duration maxWait = Duration.ofMillis(500);
+
+		/**
+		 * Requests slower than this shrink the limit, faster ones let it grow while it is saturated.
+		 */
+		private Duration targetLatency = Duration.ofMillis(500);
+
+		/**
+		 * Value of the Retry-After header sent with rejections.
+		 */
+		private Duration retryAfter = Duration.ofSeconds(1);
+	}
+}
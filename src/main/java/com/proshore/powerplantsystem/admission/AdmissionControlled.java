@@ -0,0 +1,20 @@
+package com.proshore.powerplantsystem.admission;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an expensive controller endpoint whose concurrency is limited by the AdmissionControlInterceptor.
+ * Endpoints sharing a name share one limit, configured under {@code admission.endpoints.<name>}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AdmissionControlled {
+
+    /**
+     * The name of the limit guarding the endpoint.
+     */
+    String value();
+}
@@ -0,0 +1,51 @@
+package com.proshore.powerplantsystem.config;
+
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardingProperties;
+import com.proshore.powerplantsystem.repositories.battery.sharding.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@EnableConfigurationProperties(BatteryShardingProperties.class)
+public class ShardingConfig {
+
+	/**
+	 * Replaces the auto-configured DataSource with one routing to the battery shards when sharding is enabled.
+	 * @param batteryShardingProperties The configured shard map.
+	 * @return The ShardRoutingDataSource over one pooled DataSource per shard.
+	 */
+	@Bean
+	@Primary
+	@ConditionalOnProperty(prefix = "battery.sharding", name = "enabled", havingValue = "true")
+	public DataSource shardRoutingDataSource(BatteryShardingProperties batteryShardingProperties) {
+		Map<Object, Object> shardDataSources = new HashMap<>();
+		DataSource defaultDataSource = null;
+		for (BatteryShardingProperties.Shard shard : batteryShardingProperties.getShards()) {
+			HikariDataSource dataSource = DataSourceBuilder.create()
+					.type(HikariDataSource.class)
+					.url(shard.getUrl())
+					.username(shard.getUsername())
+					.password(shard.getPassword())
+					.driverClassName(shard.getDriverClassName())
+					.build();
+			dataSource.setMaximumPoolSize(batteryShardingProperties.getMaximumPoolSize());
+			shardDataSources.put(shard.getName(), dataSource);
+			if (defaultDataSource == null) {
+				defaultDataSource = dataSource;
+			}
+		}
+		ShardRoutingDataSource routingDataSource = new ShardRoutingDataSource();
+		routingDataSource.setTargetDataSources(shardDataSources);
+		routingDataSource.setDefaultTargetDataSource(defaultDataSource);
+		return routingDataSource;
+	}
+}
@@ -0,0 +1,28 @@
+package com.proshore.powerplantsystem.config;
+
+import com.proshore.powerplantsystem.admission.AdmissionControlInterceptor;
+import com.proshore.powerplantsystem.admission.AdmissionControlProperties;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetSnapshotStoreProperties;
+import com.proshore.powerplantsystem.services.battery.BatteryRangeFeedProperties;
+import com.proshore.powerplantsystem.services.battery.BatterySketchProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@EnableConfigurationProperties({AdmissionControlProperties.class, BatteryRangeFeedProperties.class, BatterySketchProperties.class,
+		BatteryFleetSnapshotStoreProperties.class})
+public class WebMvcConfig implements WebMvcConfigurer {
+
+	private final AdmissionControlInterceptor admissionControlInterceptor;
+
+	public WebMvcConfig(final AdmissionControlInterceptor admissionControlInterceptor) {
+		this.admissionControlInterceptor = admissionControlInterceptor;
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(admissionControlInterceptor);
+	}
+}
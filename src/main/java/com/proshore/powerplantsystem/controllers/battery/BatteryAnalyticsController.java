@@ -0,0 +1,66 @@
+package com.proshore.powerplantsystem.controllers.battery;
+
+import com.proshore.powerplantsystem.admission.AdmissionControlled;
+import com.proshore.powerplantsystem.payloads.battery.CapacityHistogramResponse;
+import com.proshore.powerplantsystem.payloads.battery.CapacityStatisticsResponse;
+import com.proshore.powerplantsystem.payloads.battery.PostcodePrefixTotalsResponse;
+import com.proshore.powerplantsystem.services.battery.BatteryAnalyticsService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The BatteryAnalyticsController class defines a REST API controller for analytics over the whole battery fleet.
+ * It delegates to the BatteryAnalyticsService, which answers from an off-heap snapshot of the fleet.
+ */
+@RestController
+@RequestMapping("/battery/analytics")
+public class BatteryAnalyticsController {
+
+    private final BatteryAnalyticsService batteryAnalyticsService;
+
+    /**
+     * Constructor for BatteryAnalyticsController, injecting the BatteryAnalyticsService dependency.
+     * @param batteryAnalyticsService The BatteryAnalyticsService responsible for fleet analytics.
+     */
+    public BatteryAnalyticsController(final BatteryAnalyticsService batteryAnalyticsService) {
+        this.batteryAnalyticsService = batteryAnalyticsService;
+    }
+
+    /**
+     * Endpoint for retrieving a histogram of battery capacities.
+     * @param bucketWidth The width of every histogram bucket in watts.
+     * @return ResponseEntity with a CapacityHistogramResponse and a 200 (OK) status code.
+     */
+    @AdmissionControlled("battery-analytics")
+    @GetMapping("/capacity-histogram")
+    public ResponseEntity<CapacityHistogramResponse> getCapacityHistogram(@RequestParam(defaultValue = "10000") int bucketWidth) {
+        return new ResponseEntity<>(batteryAnalyticsService.getCapacityHistogram(bucketWidth), HttpStatus.OK);
+    }
+
+    /**
+     * Endpoint for retrieving battery counts and total capacities by postcode prefix.
+     * @param prefixLength The number of leading postcode digits to group by.
+     * @return ResponseEntity with a PostcodePrefixTotalsResponse and a 200 (OK) status code.
+     */
+    @AdmissionControlled("battery-analytics")
+    @GetMapping("/postcode-prefix-totals")
+    public ResponseEntity<PostcodePrefixTotalsResponse> getPostcodePrefixTotals(@RequestParam(defaultValue = "2") int prefixLength) {
+        return new ResponseEntity<>(batteryAnalyticsService.getPostcodePrefixTotals(prefixLength), HttpStatus.OK);
+    }
+
+    /**
+     * Endpoint for retrieving approximate capacity quantiles and distinct name counts within a postcode range.
+     * @param startPostcode The starting postcode of the range (inclusive).
+     * @param endPostcode   The ending postcode of the range (inclusive).
+     * @return ResponseEntity with a CapacityStatisticsResponse and a 200 (OK) status code.
+     */
+    @AdmissionControlled("battery-analytics")
+    @GetMapping("/range-statistics")
+    public ResponseEntity<CapacityStatisticsResponse> getRangeStatistics(@RequestParam String startPostcode, @RequestParam String endPostcode) {
+        return new ResponseEntity<>(batteryAnalyticsService.getRangeStatistics(startPostcode, endPostcode), HttpStatus.OK);
+    }
+}
@@ -1,10 +1,16 @@
 package com.proshore.powerplantsystem.controllers.battery;
 
+import com.proshore.powerplantsystem.admission.AdmissionControlled;
 import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesByIdsResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
+import com.proshore.powerplantsystem.payloads.battery.BatteryIdsRequestParams;
 import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegionsResponse;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetVersion;
 import com.proshore.powerplantsystem.services.battery.BatteryService;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -21,12 +27,16 @@ public class BatteryController {
 
     private final BatteryService batteryService;
 
+    private final BatteryFleetVersion batteryFleetVersion;
+
     /**
      * Constructor for BatteryController, injecting the BatteryService dependency.
-     * @param batteryService The BatteryService responsible for handling battery operations.
+     * @param batteryService      The BatteryService responsible for handling battery operations.
+     * @param batteryFleetVersion The fleet version used to derive ETags for the listing endpoints.
      */
-    public BatteryController(final BatteryService batteryService) {
+    public BatteryController(final BatteryService batteryService, final BatteryFleetVersion batteryFleetVersion) {
         this.batteryService = batteryService;
+        this.batteryFleetVersion = batteryFleetVersion;
     }
 
     /**
@@ -53,22 +63,95 @@ public class BatteryController {
 
     /**
      * Endpoint for retrieving a list of all battery records.
-     * @return ResponseEntity with a list of Battery objects and a 200 (OK) status code.
+     * @param ifNoneMatch The optional If-None-Match header holding a previously returned ETag.
+     * @return ResponseEntity with a list of Battery objects and a 200 (OK) status code,
+     * or an empty 304 (Not Modified) if the fleet has not changed since the ETag was issued.
      */
+    @AdmissionControlled("battery-list")
     @GetMapping("/batteries")
-    public ResponseEntity<List<Battery>> getBatteries() {
+    public ResponseEntity<List<Battery>> getBatteries(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = batteryFleetVersion.eTag();
+        if (BatteryFleetVersion.matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
         List<Battery> batteries = batteryService.getBatteries();
-        return new ResponseEntity<>(batteries, HttpStatus.OK);
+        return ResponseEntity.ok().eTag(eTag).body(batteries);
+    }
+
+    /**
+     * Endpoint for retrieving a single battery record by its id.
+     * This point lookup is not admission controlled, so it stays fast while heavy scans are throttled.
+     * @param batteryId The unique id of the Battery.
+     * @return ResponseEntity with the Battery object and a 200 (OK) status code.
+     */
+    @GetMapping("/{batteryId}")
+    public ResponseEntity<Battery> getBattery(@PathVariable Long batteryId) {
+        Battery battery = batteryService.getBattery(batteryId);
+        return new ResponseEntity<>(battery, HttpStatus.OK);
+    }
+
+    /**
+     * Endpoint for retrieving many battery records by their ids in one request.
+     * Unlike the single lookup, ids without a battery do not fail the request but are listed as missing.
+     * @param batteryIdsRequestParams The request parameters containing the battery ids.
+     * @return ResponseEntity with a BatteriesByIdsResponse containing the batteries found and the missing ids,
+     * along with a 200 (OK) status code.
+     */
+    @AdmissionControlled("battery-lookup")
+    @PostMapping("/lookup")
+    public ResponseEntity<BatteriesByIdsResponse> getBatteriesByIds(@Valid @RequestBody BatteryIdsRequestParams batteryIdsRequestParams) {
+        BatteriesByIdsResponse batteriesByIdsResponse = batteryService.getBatteriesByIds(batteryIdsRequestParams.getIds());
+        return new ResponseEntity<>(batteriesByIdsResponse, HttpStatus.OK);
+    }
+
+    /**
+     * Endpoint for updating the name, postcode and capacity of a battery record.
+     * @param batteryId The unique id of the Battery to be updated.
+     * @param battery   The Battery object holding the new values.
+     * @return ResponseEntity with the updated Battery object and a 200 (OK) status code.
+     */
+    @PutMapping("/{batteryId}")
+    public ResponseEntity<Battery> updateBattery(@PathVariable Long batteryId, @Valid @RequestBody Battery battery) {
+        Battery updatedBattery = batteryService.updateBattery(batteryId, battery);
+        return new ResponseEntity<>(updatedBattery, HttpStatus.OK);
     }
 
     /**
      * Endpoint for retrieving battery records within a specified postcode range.
      * @param batteryRangeRequestParams The request parameters containing startPostcode and endPostcode.
-     * @return ResponseEntity with a BatteriesInRangeResponse containing the filtered battery list and statistics, along with a 200 (OK) status code.
+     * @param ifNoneMatch               The optional If-None-Match header holding a previously returned ETag.
+     * @return ResponseEntity with a BatteriesInRangeResponse containing the filtered battery list and statistics, along with a 200 (OK) status code,
+     * or an empty 304 (Not Modified) if the fleet has not changed since the ETag was issued for the same range.
      */
+    @AdmissionControlled("battery-range")
     @PostMapping("/range")
-    public ResponseEntity<BatteriesInRangeResponse> getBatteriesInPostcodeRange(@Valid @RequestBody BatteryRangeRequestParams batteryRangeRequestParams) {
+    public ResponseEntity<BatteriesInRangeResponse> getBatteriesInPostcodeRange(@Valid @RequestBody BatteryRangeRequestParams batteryRangeRequestParams,
+                                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = batteryFleetVersion.eTag(batteryRangeRequestParams.startPostcode.trim(), batteryRangeRequestParams.endPostcode.trim());
+        if (BatteryFleetVersion.matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
         BatteriesInRangeResponse batteriesInRangeResponses = batteryService.getBatteriesInPostcodeRange(batteryRangeRequestParams);
-        return new ResponseEntity<>(batteriesInRangeResponses, HttpStatus.OK);
+        return ResponseEntity.ok().eTag(eTag).body(batteriesInRangeResponses);
+    }
+
+    /**
+     * Endpoint for retrieving battery counts and total watt capacity within a specified postcode range,
+     * broken down by one, two and three character postcode prefixes.
+     * @param batteryRangeRequestParams The request parameters containing startPostcode and endPostcode.
+     * @param ifNoneMatch               The optional If-None-Match header holding a previously returned ETag.
+     * @return ResponseEntity with a PostcodeRegionsResponse and a 200 (OK) status code,
+     * or an empty 304 (Not Modified) if the fleet has not changed since the ETag was issued for the same range.
+     */
+    @AdmissionControlled("battery-regions")
+    @PostMapping("/range/regions")
+    public ResponseEntity<PostcodeRegionsResponse> getPostcodeRegionsInRange(@Valid @RequestBody BatteryRangeRequestParams batteryRangeRequestParams,
+                                                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = batteryFleetVersion.eTag("regions", batteryRangeRequestParams.startPostcode.trim(), batteryRangeRequestParams.endPostcode.trim());
+        if (BatteryFleetVersion.matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        PostcodeRegionsResponse postcodeRegionsResponse = batteryService.getPostcodeRegionsInRange(batteryRangeRequestParams);
+        return ResponseEntity.ok().eTag(eTag).body(postcodeRegionsResponse);
     }
 }
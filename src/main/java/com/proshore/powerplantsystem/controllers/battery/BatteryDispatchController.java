@@ -0,0 +1,43 @@
+package com.proshore.powerplantsystem.controllers.battery;
+
+import com.proshore.powerplantsystem.admission.AdmissionControlled;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanResponse;
+import com.proshore.powerplantsystem.services.battery.BatteryDispatchService;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The BatteryDispatchController class defines a REST API controller for planning which batteries cover a watt demand.
+ * It delegates the selection to the BatteryDispatchService.
+ */
+@RestController
+@RequestMapping("/battery/range")
+public class BatteryDispatchController {
+
+    private final BatteryDispatchService batteryDispatchService;
+
+    /**
+     * Constructor for BatteryDispatchController, injecting the BatteryDispatchService dependency.
+     * @param batteryDispatchService The BatteryDispatchService responsible for dispatch planning.
+     */
+    public BatteryDispatchController(final BatteryDispatchService batteryDispatchService) {
+        this.batteryDispatchService = batteryDispatchService;
+    }
+
+    /**
+     * Endpoint for selecting batteries within a postcode range to cover a target watt capacity.
+     * @param dispatchPlanRequestParams The request parameters containing the postcode range, target watt capacity and policy.
+     * @return ResponseEntity with a DispatchPlanResponse and a 200 (OK) status code.
+     */
+    @AdmissionControlled("battery-dispatch")
+    @PostMapping("/dispatch-plan")
+    public ResponseEntity<DispatchPlanResponse> planDispatch(@Valid @RequestBody DispatchPlanRequestParams dispatchPlanRequestParams) {
+        return new ResponseEntity<>(batteryDispatchService.planDispatch(dispatchPlanRequestParams), HttpStatus.OK);
+    }
+}
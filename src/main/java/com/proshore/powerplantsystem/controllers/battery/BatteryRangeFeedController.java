@@ -0,0 +1,44 @@
+package com.proshore.powerplantsystem.controllers.battery;
+
+import com.proshore.powerplantsystem.admission.AdmissionControlled;
+import com.proshore.powerplantsystem.services.battery.BatteryRangeFeed;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * The BatteryRangeFeedController class defines a REST API controller streaming postcode range statistics
+ * as Server-Sent Events. It delegates the subscriptions to the BatteryRangeFeed.
+ */
+@RestController
+@RequestMapping("/battery/range")
+public class BatteryRangeFeedController {
+
+    private final BatteryRangeFeed batteryRangeFeed;
+
+    /**
+     * Constructor for BatteryRangeFeedController, injecting the BatteryRangeFeed dependency.
+     * @param batteryRangeFeed The BatteryRangeFeed pushing range statistics to subscribers.
+     */
+    public BatteryRangeFeedController(final BatteryRangeFeed batteryRangeFeed) {
+        this.batteryRangeFeed = batteryRangeFeed;
+    }
+
+    /**
+     * Endpoint for subscribing to the statistics of a postcode range.
+     * The first event is a snapshot of the range, followed by an added, changed or removed event
+     * carrying the battery and the new totals whenever a write affects the range.
+     * Admission control covers reading the initial snapshot, not the lifetime of the stream.
+     * @param startPostcode The starting postcode of the range (inclusive).
+     * @param endPostcode   The ending postcode of the range (inclusive).
+     * @return The SseEmitter streaming the range events.
+     */
+    @AdmissionControlled("battery-feed")
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBatteriesInPostcodeRange(@RequestParam String startPostcode, @RequestParam String endPostcode) {
+        return batteryRangeFeed.subscribe(startPostcode, endPostcode);
+    }
+}
@@ -0,0 +1,18 @@
+package com.proshore.powerplantsystem.events.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The BatteriesChangedEvent is published by the BatteryService whenever batteries are written.
+ * Listeners should use a transactional event listener so they only observe committed data.
+ */
+@Getter
+@AllArgsConstructor
+public class BatteriesChangedEvent {
+
+    private final List<Battery> batteries;
+}
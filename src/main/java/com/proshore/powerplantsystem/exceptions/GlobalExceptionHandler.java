@@ -1,6 +1,7 @@
 package com.proshore.powerplantsystem.exceptions;
 
 import com.proshore.powerplantsystem.payloads.APIResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -62,6 +63,21 @@ public class GlobalExceptionHandler {
 		return new ResponseEntity<>(res, HttpStatus.NOT_FOUND);
 	}
 
+	/**
+	 * Handles ServiceOverloadedException instances by returning a Service Unavailable (503) HTTP response
+	 * with a Retry-After header and the error message from the exception.
+	 *
+	 * @param e The ServiceOverloadedException instance.
+	 * @return A ResponseEntity containing an APIResponse with the error message.
+	 */
+	@ExceptionHandler(ServiceOverloadedException.class)
+	public ResponseEntity<APIResponse> serviceOverloadedException(ServiceOverloadedException e) {
+		APIResponse res = new APIResponse(e.getMessage(), false);
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+				.body(res);
+	}
+
 	/**
 	 * Handles MethodArgumentNotValidException instances by returning a Bad Request (400) HTTP response
 	 * with validation error messages for fields in the request.
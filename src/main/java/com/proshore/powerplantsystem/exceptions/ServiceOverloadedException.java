@@ -0,0 +1,20 @@
+package com.proshore.powerplantsystem.exceptions;
+
+import java.io.Serial;
+
+public class ServiceOverloadedException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public ServiceOverloadedException(String endpoint, long retryAfterSeconds) {
+        super(String.format("Too many concurrent %s requests, retry after %d seconds", endpoint, retryAfterSeconds));
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
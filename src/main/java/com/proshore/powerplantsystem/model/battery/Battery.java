@@ -1,12 +1,21 @@
 package com.proshore.powerplantsystem.model.battery;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.Instant;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_battery_postcode", columnList = "postcode"),
+        @Index(name = "idx_battery_last_modified", columnList = "last_modified"),
+        @Index(name = "idx_battery_capacity_id_postcode", columnList = "capacity DESC, id DESC, postcode")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -24,6 +33,14 @@ public class Battery {
 
     private Integer capacity;
 
+    /**
+     * Time of the last insert or update, used to catch in-memory fleet state up on rows changed since it was persisted.
+     */
+    @JsonIgnore
+    @UpdateTimestamp
+    @Column(name = "last_modified")
+    private Instant lastModified;
+
     public Battery(String name, String postcode, int capacity) {
         this.name = name;
         this.postcode = postcode;
@@ -0,0 +1,17 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatteriesByIdsResponse {
+
+	private List<Battery> batteries;
+	private List<Long> missingIds;
+}
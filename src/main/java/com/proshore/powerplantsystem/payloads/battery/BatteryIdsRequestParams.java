@@ -0,0 +1,19 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatteryIdsRequestParams {
+
+    @NotEmpty(message = "Battery ids are mandatory")
+    @Size(max = 1000, message = "At most 1000 battery ids can be requested at once")
+    public List<Long> ids;
+}
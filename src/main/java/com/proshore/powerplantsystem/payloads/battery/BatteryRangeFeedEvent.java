@@ -0,0 +1,26 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatteryRangeFeedEvent {
+
+	/**
+	 * SNAPSHOT carries the range statistics at subscription time, the other types one battery that was
+	 * added to, changed within or moved out of the range together with the new statistics.
+	 */
+	public enum Type {
+		SNAPSHOT, ADDED, CHANGED, REMOVED
+	}
+
+	private Type type;
+	private Battery battery;
+	private int batteryCount;
+	private long totalWattCapacity;
+	private double averageWattCapacity;
+}
@@ -0,0 +1,15 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CapacityHistogramBucket {
+
+	private long lowerBound;
+	private long upperBound;
+	private int count;
+}
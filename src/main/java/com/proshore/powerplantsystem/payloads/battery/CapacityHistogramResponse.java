@@ -0,0 +1,17 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CapacityHistogramResponse {
+
+	private int bucketWidth;
+	private int batteryCount;
+	private List<CapacityHistogramBucket> buckets;
+}
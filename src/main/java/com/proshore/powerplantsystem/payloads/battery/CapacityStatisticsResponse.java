@@ -0,0 +1,27 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CapacityStatisticsResponse {
+
+	private String startPostcode;
+	private String endPostcode;
+	private long batteryCount;
+
+	/**
+	 * Approximate capacity quantiles, null when no battery in the range has a capacity.
+	 */
+	private Double p50WattCapacity;
+	private Double p90WattCapacity;
+	private Double p99WattCapacity;
+	private double quantileRankError;
+
+	private long distinctNames;
+	private long distinctNamesLowerBound;
+	private long distinctNamesUpperBound;
+}
@@ -0,0 +1,27 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DispatchPlanRequestParams {
+
+    @NotBlank(message = "Start post code is mandatory")
+    public String startPostcode;
+
+    @NotBlank(message = "End post code is mandatory")
+    public String endPostcode;
+
+    @NotNull(message = "Target watt capacity is mandatory")
+    @Positive(message = "Target watt capacity must be positive")
+    public Long targetWattCapacity;
+
+    @NotNull(message = "Dispatch policy is mandatory")
+    public DispatchPolicy policy;
+}
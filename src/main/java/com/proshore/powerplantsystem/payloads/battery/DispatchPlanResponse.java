@@ -0,0 +1,25 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DispatchPlanResponse {
+
+	private DispatchPolicy policy;
+	private long targetWattCapacity;
+	private long selectedWattCapacity;
+	private boolean targetMet;
+	private List<Battery> batteries;
+
+	/**
+	 * Number of batteries read from the capacity ordering before the plan was complete.
+	 */
+	private int scannedBatteries;
+}
@@ -0,0 +1,22 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+/**
+ * How batteries are chosen to cover a watt demand.
+ */
+public enum DispatchPolicy {
+
+	/**
+	 * Batteries in descending capacity order until the demand is covered.
+	 */
+	LARGEST_FIRST,
+
+	/**
+	 * As few batteries as possible, with the last one being the smallest that still covers the demand.
+	 */
+	FEWEST_UNITS,
+
+	/**
+	 * Batteries in descending capacity order, but one per postcode region before a second one from any region.
+	 */
+	SPREAD
+}
@@ -0,0 +1,16 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PostcodePrefixTotalsResponse {
+
+	private int prefixLength;
+	private List<PostcodePrefixTotal> totals;
+}
@@ -0,0 +1,18 @@
+package com.proshore.powerplantsystem.payloads.battery;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PostcodeRegionsResponse {
+
+	private long batteryCount;
+	private long totalWattCapacity;
+	private List<PostcodeRegion> regions = new ArrayList<>();
+}
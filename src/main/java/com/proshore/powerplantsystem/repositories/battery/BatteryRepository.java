@@ -2,9 +2,15 @@ package com.proshore.powerplantsystem.repositories.battery;
 
 
 import com.proshore.powerplantsystem.model.battery.Battery;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.List;
+
 /**
  * The BatteryRepository interface extends the Spring Data JPA `JpaRepository` and provides
  * methods for performing CRUD (Create, Read, Update, Delete) operations on Battery entities.
@@ -20,4 +26,104 @@ public interface BatteryRepository extends JpaRepository<Battery, Long> {
 	 */
 	Battery findByPostcode(String postCode);
 
+	/**
+	 * Retrieves the Battery entities inserted or updated at or after the given time.
+	 * @param since The earliest last modification time to include.
+	 * @return A list of Battery objects modified since the given time.
+	 */
+	List<Battery> findByLastModifiedGreaterThanEqual(Instant since);
+
+	/**
+	 * Retrieves the latest last modification time of all batteries, read from the last_modified index.
+	 * @return The time of the latest insert or update, or null if there are no batteries.
+	 */
+	@Query("SELECT MAX(b.lastModified) FROM Battery b")
+	Instant findMaxLastModified();
+
+	/**
+	 * Retrieves the Battery entities within the given postcode range, sorted by name.
+	 * The range is filtered through the postcode index rather than in memory.
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @return A list of Battery objects within the range in ascending name order.
+	 */
+	List<Battery> findByPostcodeBetweenOrderByNameAsc(String startPostcode, String endPostcode);
+
+	/**
+	 * Retrieves a page of batteries with a positive capacity within the given postcode range, in descending
+	 * capacity order with ties broken by descending id, starting after the given position of that order.
+	 * The order is that of idx_battery_capacity_id_postcode, which also holds the postcode, so a page is read
+	 * from the index in order from the given position instead of sorting the range.
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @param afterCapacity The capacity of the last battery of the previous page.
+	 * @param afterId       The id of the last battery of the previous page.
+	 * @param page          The page size, as a Pageable of the first page.
+	 * @return The next batteries in descending capacity order.
+	 */
+	@Query("SELECT b FROM Battery b WHERE b.postcode BETWEEN :startPostcode AND :endPostcode AND b.capacity > 0 "
+			+ "AND b.capacity <= :afterCapacity AND (b.capacity < :afterCapacity OR b.id < :afterId) "
+			+ "ORDER BY b.capacity DESC, b.id DESC")
+	List<Battery> findInPostcodeRangeByCapacityDescending(@Param("startPostcode") String startPostcode,
+														  @Param("endPostcode") String endPostcode,
+														  @Param("afterCapacity") Integer afterCapacity,
+														  @Param("afterId") Long afterId,
+														  Pageable page);
+
+	/**
+	 * Retrieves the batteries within the given postcode range that cover a demand, from the given position of the
+	 * descending capacity order onwards, in ascending capacity order. The first of them is the smallest battery
+	 * still covering the demand, found by seeking backwards in idx_battery_capacity_id_postcode.
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @param minCapacity   The demand to cover.
+	 * @param fromCapacity  The capacity of the first battery to consider.
+	 * @param fromId        The id of the first battery to consider.
+	 * @param page          The number of batteries, as a Pageable of the first page.
+	 * @return The covering batteries in ascending capacity order.
+	 */
+	@Query("SELECT b FROM Battery b WHERE b.postcode BETWEEN :startPostcode AND :endPostcode AND b.capacity >= :minCapacity "
+			+ "AND b.capacity <= :fromCapacity AND (b.capacity < :fromCapacity OR b.id <= :fromId) "
+			+ "ORDER BY b.capacity ASC, b.id ASC")
+	List<Battery> findSmallestCoveringInPostcodeRange(@Param("startPostcode") String startPostcode,
+													  @Param("endPostcode") String endPostcode,
+													  @Param("minCapacity") Integer minCapacity,
+													  @Param("fromCapacity") Integer fromCapacity,
+													  @Param("fromId") Long fromId,
+													  Pageable page);
+
+	/**
+	 * Counts batteries and sums their capacity by the first three characters of their postcode,
+	 * for postcodes within the given range.
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @return One PostcodePrefixAggregate per three character postcode prefix found in the range.
+	 */
+	@Query("SELECT new com.proshore.powerplantsystem.repositories.battery.PostcodePrefixAggregate("
+			+ "SUBSTRING(b.postcode, 1, 3), COUNT(b), SUM(b.capacity)) "
+			+ "FROM Battery b WHERE b.postcode BETWEEN :startPostcode AND :endPostcode "
+			+ "GROUP BY SUBSTRING(b.postcode, 1, 3)")
+	List<PostcodePrefixAggregate> aggregateByPostcodePrefix(@Param("startPostcode") String startPostcode,
+															@Param("endPostcode") String endPostcode);
+
+	/**
+	 * Retrieves the batteries with a positive capacity within the given postcode range that rank between the given
+	 * positions of the descending capacity order of their three character postcode prefix, ties broken by descending
+	 * id. One query thereby reads the next few batteries of every postcode region of the range.
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @param afterRank     The last rank within its region already read, zero for the first batteries.
+	 * @param untilRank     The last rank within its region to read.
+	 * @return The batteries grouped by postcode prefix, each group in descending capacity order.
+	 */
+	@Query(value = "SELECT id, name, postcode, capacity, last_modified FROM ("
+			+ "SELECT b.*, ROW_NUMBER() OVER (PARTITION BY SUBSTRING(b.postcode, 1, 3) ORDER BY b.capacity DESC, b.id DESC) AS region_rank "
+			+ "FROM battery b WHERE b.postcode BETWEEN :startPostcode AND :endPostcode AND b.capacity > 0) ranked "
+			+ "WHERE region_rank > :afterRank AND region_rank <= :untilRank "
+			+ "ORDER BY SUBSTRING(postcode, 1, 3), region_rank", nativeQuery = true)
+	List<Battery> findRegionHeadsInPostcodeRange(@Param("startPostcode") String startPostcode,
+												 @Param("endPostcode") String endPostcode,
+												 @Param("afterRank") int afterRank,
+												 @Param("untilRank") int untilRank);
+
 }
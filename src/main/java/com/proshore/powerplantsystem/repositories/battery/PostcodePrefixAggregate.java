@@ -0,0 +1,18 @@
+package com.proshore.powerplantsystem.repositories.battery;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Row of a grouped query holding the battery count and total capacity of one postcode prefix.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PostcodePrefixAggregate {
+
+	private String prefix;
+	private Long batteryCount;
+	private Long totalWattCapacity;
+}
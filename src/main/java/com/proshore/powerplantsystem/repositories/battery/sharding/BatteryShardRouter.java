@@ -0,0 +1,236 @@
+package com.proshore.powerplantsystem.repositories.battery.sharding;
+
+import com.proshore.powerplantsystem.exceptions.APIException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The BatteryShardRouter class maps postcodes to the shards owning them and runs repository work on shards.
+ * <p>
+ * Every unit of work runs in its own transaction with the ShardContext set, so the connection is taken from
+ * the owning shard. Callers must therefore not already be in a transaction, which would hold a connection to
+ * another shard; such calls fail instead of joining it. Work on several shards runs in
+ * parallel: the first shard on the caller's thread, the others on a bounded executor sized from
+ * battery.sharding.concurrent-requests, which falls back to the caller's thread when its queue is full.
+ * With sharding disabled there is a single shard and work runs inline on the caller's thread.
+ * <p>
+ * Battery ids must be unique across shards, e.g. by giving every shard database its own
+ * auto_increment_offset with auto_increment_increment set to the number of shards.
+ */
+@Component
+public class BatteryShardRouter {
+
+	public static final String DEFAULT_SHARD = "default";
+
+	private final List<BatteryShardingProperties.Shard> shards;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final ThreadPoolExecutor executor;
+
+	public BatteryShardRouter(final BatteryShardingProperties batteryShardingProperties, final PlatformTransactionManager transactionManager,
+							  final MeterRegistry meterRegistry) {
+		this.shards = batteryShardingProperties.isEnabled() ? sortedShards(batteryShardingProperties.getShards()) : List.of(defaultShard());
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		if (shards.size() > 1) {
+			this.executor = shardExecutor(batteryShardingProperties, shards.size());
+			new ExecutorServiceMetrics(executor, "battery.shard", Tags.empty()).bindTo(meterRegistry);
+		} else {
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Returns the names of all shards.
+	 * @return The shard names in postcode order.
+	 */
+	public List<String> allShards() {
+		return shards.stream().map(BatteryShardingProperties.Shard::getName).toList();
+	}
+
+	/**
+	 * Finds the shard owning a postcode.
+	 * @param postcode The postcode of a battery.
+	 * @return The name of the owning shard.
+	 * @throws APIException if no shard covers the postcode.
+	 */
+	public String shardFor(String postcode) {
+		for (BatteryShardingProperties.Shard shard : shards) {
+			if (contains(shard, postcode, postcode)) {
+				return shard.getName();
+			}
+		}
+		throw new APIException("No shard configured for battery post code: " + postcode);
+	}
+
+	/**
+	 * Finds the shards holding postcodes within a range.
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @return The names of the shards overlapping the range, in postcode order.
+	 */
+	public List<String> shardsOverlapping(String startPostcode, String endPostcode) {
+		return shards.stream()
+				.filter(shard -> contains(shard, startPostcode, endPostcode))
+				.map(BatteryShardingProperties.Shard::getName)
+				.toList();
+	}
+
+	/**
+	 * Runs work in a transaction on one shard.
+	 * @param shard The name of the shard.
+	 * @param work  The repository work to run.
+	 * @return The result of the work.
+	 * @throws IllegalStateException if a transaction is already active on the calling thread.
+	 */
+	public <T> T onShard(String shard, Supplier<T> work) {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			throw new IllegalStateException("Work on shard " + shard + " must not run inside an existing transaction");
+		}
+		String previousShard = ShardContext.current();
+		ShardContext.set(shard);
+		try {
+			return transactionTemplate.execute(status -> work.get());
+		} finally {
+			if (previousShard != null) {
+				ShardContext.set(previousShard);
+			} else {
+				ShardContext.clear();
+			}
+		}
+	}
+
+	/**
+	 * Runs work on several shards in parallel, each in its own transaction.
+	 * @param shards The names of the shards.
+	 * @param work   The repository work to run, given the shard name.
+	 * @return The results in the order of the given shards.
+	 */
+	public <T> List<T> onShards(List<String> shards, Function<String, T> work) {
+		return runOnShards(shards, shard -> onShard(shard, () -> work.apply(shard)));
+	}
+
+	/**
+	 * Runs work on several shards in parallel, each in its own transaction, and waits for every shard even
+	 * if some fail. Writes use this to learn which shards committed, as there is no transaction spanning shards.
+	 * @param shards The names of the shards.
+	 * @param work   The repository work to run, given the shard name.
+	 * @return The outcome of every shard in the order of the given shards.
+	 */
+	public <T> List<ShardOutcome<T>> onShardsSettled(List<String> shards, Function<String, T> work) {
+		return runOnShards(shards, shard -> {
+			try {
+				return new ShardOutcome<>(shard, onShard(shard, () -> work.apply(shard)), null);
+			} catch (RuntimeException e) {
+				return new ShardOutcome<>(shard, null, e);
+			}
+		});
+	}
+
+	private <T> List<T> runOnShards(List<String> shards, Function<String, T> task) {
+		if (shards.size() <= 1 || executor == null) {
+			return shards.stream().map(task).toList();
+		}
+		List<Future<T>> futures = new ArrayList<>(shards.size() - 1);
+		for (String shard : shards.subList(1, shards.size())) {
+			futures.add(executor.submit(() -> task.apply(shard)));
+		}
+		List<T> results = new ArrayList<>(shards.size());
+		try {
+			// The caller would otherwise only wait, so it does the work of the first shard itself
+			results.add(task.apply(shards.get(0)));
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while querying battery shards", e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException("Battery shard query failed", e.getCause());
+		} catch (RuntimeException e) {
+			futures.forEach(future -> future.cancel(true));
+			throw e;
+		}
+		return results;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean contains(BatteryShardingProperties.Shard shard, String startPostcode, String endPostcode) {
+		return (shard.getStartPostcode() == null || shard.getStartPostcode().compareTo(endPostcode) <= 0)
+				&& (shard.getEndPostcode() == null || shard.getEndPostcode().compareTo(startPostcode) >= 0);
+	}
+
+	private static List<BatteryShardingProperties.Shard> sortedShards(List<BatteryShardingProperties.Shard> shards) {
+		if (shards.isEmpty()) {
+			throw new IllegalStateException("battery.sharding.enabled is set but no shards are configured");
+		}
+		List<BatteryShardingProperties.Shard> sorted = shards.stream()
+				.sorted(Comparator.comparing(BatteryShardingProperties.Shard::getStartPostcode, Comparator.nullsFirst(Comparator.naturalOrder())))
+				.toList();
+		for (int i = 1; i < sorted.size(); i++) {
+			String previousEnd = sorted.get(i - 1).getEndPostcode();
+			String start = sorted.get(i).getStartPostcode();
+			if (previousEnd == null || start == null || previousEnd.compareTo(start) >= 0) {
+				throw new IllegalStateException("Battery shards " + sorted.get(i - 1).getName() + " and " + sorted.get(i).getName() + " overlap");
+			}
+		}
+		return sorted;
+	}
+
+	private static BatteryShardingProperties.Shard defaultShard() {
+		BatteryShardingProperties.Shard shard = new BatteryShardingProperties.Shard();
+		shard.setName(DEFAULT_SHARD);
+		return shard;
+	}
+
+	private static ThreadPoolExecutor shardExecutor(BatteryShardingProperties batteryShardingProperties, int shardCount) {
+		if (batteryShardingProperties.getConcurrentRequests() < 1 || batteryShardingProperties.getQueueCapacity() < 1) {
+			throw new IllegalStateException("battery.sharding.concurrent-requests and queue-capacity must be positive");
+		}
+		int threads = (shardCount - 1) * batteryShardingProperties.getConcurrentRequests();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(batteryShardingProperties.getQueueCapacity()), shardThreadFactory(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static ThreadFactory shardThreadFactory() {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "battery-shard-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,59 @@
+package com.proshore.powerplantsystem.repositories.battery.sharding;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shard map partitioning batteries across databases by postcode range.
+ * When sharding is disabled every battery lives in the single configured spring.datasource.
+ */
+@Data
+@ConfigurationProperties(prefix = "battery.sharding")
+public class BatteryShardingProperties {
+
+	private boolean enabled = false;
+
+	/**
+	 * Shards with non-overlapping, inclusive postcode ranges. The first shard is also the default
+	 * DataSource used outside of any shard, e.g. for schema management at startup.
+	 */
+	private List<Shard> shards = new ArrayList<>();
+
+	/**
+	 * Scatter-gather requests expected to run at once. The shard executor has this many threads per shard
+	 * beyond the first, whose work runs on the requesting thread.
+	 */
+	private int concurrentRequests = 8;
+
+	/**
+	 * Shard queries that may wait for an executor thread. When the queue is full the requesting thread
+	 * runs the query itself instead.
+	 */
+	private int queueCapacity = 64;
+
+	/**
+	 * Connections pooled per shard, at least the combined max-limit of the admission controlled endpoints.
+	 */
+	private int maximumPoolSize = 24;
+
+	@Data
+	public static class Shard {
+
+		private String name;
+
+		private String startPostcode;
+
+		private String endPostcode;
+
+		private String url;
+
+		private String username;
+
+		private String password;
+
+		private String driverClassName;
+	}
+}
@@ -0,0 +1,25 @@
+package com.proshore.powerplantsystem.repositories.battery.sharding;
+
+/**
+ * Holds the shard the current thread's database work is routed to.
+ * It is read by the ShardRoutingDataSource when a transaction acquires its connection.
+ */
+public final class ShardContext {
+
+	private static final ThreadLocal<String> CURRENT_SHARD = new ThreadLocal<>();
+
+	private ShardContext() {
+	}
+
+	public static String current() {
+		return CURRENT_SHARD.get();
+	}
+
+	static void set(String shard) {
+		CURRENT_SHARD.set(shard);
+	}
+
+	static void clear() {
+		CURRENT_SHARD.remove();
+	}
+}
@@ -0,0 +1,15 @@
+package com.proshore.powerplantsystem.repositories.battery.sharding;
+
+/**
+ * The outcome of work run on one shard: either its result or the exception it failed with.
+ *
+ * @param shard   The name of the shard.
+ * @param result  The result of the work, null if it failed.
+ * @param failure The exception the work failed with, null if it succeeded.
+ */
+public record ShardOutcome<T>(String shard, T result, RuntimeException failure) {
+
+	public boolean succeeded() {
+		return failure == null;
+	}
+}
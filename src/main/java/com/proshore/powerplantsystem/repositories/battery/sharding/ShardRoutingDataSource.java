@@ -0,0 +1,31 @@
+package com.proshore.powerplantsystem.repositories.battery.sharding;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * DataSource handing out connections of the shard set in the ShardContext, or of the default shard
+ * when no shard is set. Unknown shard names are rejected rather than silently using the default.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+	public ShardRoutingDataSource() {
+		setLenientFallback(false);
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		return ShardContext.current();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		for (DataSource dataSource : getResolvedDataSources().values()) {
+			if (dataSource instanceof AutoCloseable closeable) {
+				closeable.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.payloads.battery.CapacityHistogramResponse;
+import com.proshore.powerplantsystem.payloads.battery.CapacityStatisticsResponse;
+import com.proshore.powerplantsystem.payloads.battery.PostcodePrefixTotalsResponse;
+
+/**
+ * The BatteryAnalyticsService interface defines analytics computed over the whole battery fleet.
+ * Implementations are expected to work from an in-memory snapshot rather than loading entities per request.
+ */
+public interface BatteryAnalyticsService {
+
+    /**
+     * Builds a histogram of battery capacities.
+     * @param bucketWidth The width of every histogram bucket in watts.
+     * @return The number of batteries in each capacity bucket.
+     */
+    CapacityHistogramResponse getCapacityHistogram(int bucketWidth);
+
+    /**
+     * Sums battery counts and capacities by postcode prefix.
+     * @param prefixLength The number of leading postcode digits to group by.
+     * @return The count and total watt capacity of every postcode prefix.
+     */
+    PostcodePrefixTotalsResponse getPostcodePrefixTotals(int prefixLength);
+
+    /**
+     * Estimates capacity quantiles and distinct battery names within a postcode range.
+     * @param startPostcode The starting postcode of the range (inclusive).
+     * @param endPostcode   The ending postcode of the range (inclusive).
+     * @return The approximate p50, p90 and p99 capacities and distinct name count with their error bounds.
+     */
+    CapacityStatisticsResponse getRangeStatistics(String startPostcode, String endPostcode);
+
+}
@@ -0,0 +1,101 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.CapacityHistogramResponse;
+import com.proshore.powerplantsystem.payloads.battery.CapacityStatisticsResponse;
+import com.proshore.powerplantsystem.payloads.battery.PostcodePrefixTotalsResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Slf4j
+@Service
+public class BatteryAnalyticsServiceImpl implements BatteryAnalyticsService {
+
+	private final BatteryFleetSnapshot batteryFleetSnapshot;
+
+	private final BatteryCapacitySketches batteryCapacitySketches;
+
+	private final BatteryFleetSnapshotStore batteryFleetSnapshotStore;
+
+	public BatteryAnalyticsServiceImpl(final BatteryFleetSnapshot batteryFleetSnapshot, final BatteryCapacitySketches batteryCapacitySketches,
+									   final BatteryFleetSnapshotStore batteryFleetSnapshotStore) {
+		this.batteryFleetSnapshot = batteryFleetSnapshot;
+		this.batteryCapacitySketches = batteryCapacitySketches;
+		this.batteryFleetSnapshotStore = batteryFleetSnapshotStore;
+	}
+
+	/**
+	 * Loads the in-memory fleet state at startup, so no analytics request has to wait for the full read.
+	 * If it fails, the first analytics request loads it instead.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void warmUp() {
+		try {
+			loadFleet();
+		} catch (RuntimeException e) {
+			log.warn("Could not load battery fleet state at startup: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public CapacityHistogramResponse getCapacityHistogram(int bucketWidth) {
+		return loadedSnapshot().capacityHistogram(bucketWidth);
+	}
+
+	@Override
+	public PostcodePrefixTotalsResponse getPostcodePrefixTotals(int prefixLength) {
+		return loadedSnapshot().postcodePrefixTotals(prefixLength);
+	}
+
+	@Override
+	public CapacityStatisticsResponse getRangeStatistics(String startPostcode, String endPostcode) {
+		return loadedSketches().statistics(startPostcode, endPostcode);
+	}
+
+	/**
+	 * Returns the fleet snapshot, loading it if that failed at startup.
+	 * Later writes keep it up to date without further full loads.
+	 *
+	 * @return The loaded BatteryFleetSnapshot.
+	 */
+	private BatteryFleetSnapshot loadedSnapshot() {
+		if (!batteryFleetSnapshot.isLoaded()) {
+			loadFleet();
+		}
+		return batteryFleetSnapshot;
+	}
+
+	/**
+	 * Returns the capacity sketches, loading them if that failed at startup.
+	 *
+	 * @return The loaded BatteryCapacitySketches.
+	 */
+	private BatteryCapacitySketches loadedSketches() {
+		if (!batteryCapacitySketches.isLoaded()) {
+			loadFleet();
+		}
+		return batteryCapacitySketches;
+	}
+
+	/**
+	 * Loads the fleet snapshot and the capacity sketches that are not loaded yet from one read of the fleet,
+	 * which comes from the persisted snapshot when available and from all shards otherwise.
+	 */
+	private synchronized void loadFleet() {
+		if (batteryFleetSnapshot.isLoaded() && batteryCapacitySketches.isLoaded()) {
+			return;
+		}
+		log.info("Loading battery fleet state");
+		List<Battery> batteries = batteryFleetSnapshotStore.readFleet();
+		if (!batteryFleetSnapshot.isLoaded()) {
+			batteryFleetSnapshot.load(batteries);
+		}
+		if (!batteryCapacitySketches.isLoaded()) {
+			batteryCapacitySketches.load(batteries);
+		}
+	}
+}
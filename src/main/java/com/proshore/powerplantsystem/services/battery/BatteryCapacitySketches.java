@@ -0,0 +1,227 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.exceptions.APIException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.CapacityStatisticsResponse;
+import org.apache.datasketches.hll.HllSketch;
+import org.apache.datasketches.hll.Union;
+import org.apache.datasketches.kll.KllDoublesSketch;
+import org.apache.datasketches.kll.KllSketch;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The BatteryCapacitySketches class keeps mergeable sketches of the battery fleet per postcode bucket:
+ * a KLL sketch of capacities for quantiles and a HyperLogLog sketch of names for distinct counts.
+ * <p>
+ * A bucket holds the batteries sharing the leading characters of their postcode. Range statistics merge
+ * the sketches of the buckets lying entirely inside the range and build the two boundary buckets from
+ * their batteries, so a query costs the number of buckets plus the size of two buckets, whatever the size
+ * of the fleet. Sketches cannot forget values, so a bucket losing or changing a battery is rebuilt from
+ * its batteries, while new batteries are added to the sketches in place.
+ */
+@Component
+public class BatteryCapacitySketches {
+
+	private static final int MIN_HLL_LG_K = 4;
+	private static final int MAX_HLL_LG_K = 21;
+	private static final double HLL_STANDARD_ERROR_FACTOR = 1.04;
+	private static final int BOUNDS_STANDARD_DEVIATIONS = 2;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final NavigableMap<String, Bucket> buckets = new TreeMap<>();
+	private final Map<Long, String> bucketKeysById = new HashMap<>();
+
+	private final int bucketPrefixLength;
+	private final int quantileK;
+	private final int distinctLgK;
+
+	private volatile boolean loaded;
+
+	public BatteryCapacitySketches(final BatterySketchProperties batterySketchProperties) {
+		if (batterySketchProperties.getBucketPrefixLength() < 1) {
+			throw new IllegalArgumentException("Sketch bucket prefix length must be positive");
+		}
+		this.bucketPrefixLength = batterySketchProperties.getBucketPrefixLength();
+		this.quantileK = quantileK(batterySketchProperties.getQuantileRankError());
+		this.distinctLgK = distinctLgK(batterySketchProperties.getDistinctCountError());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onBatteriesChanged(BatteriesChangedEvent event) {
+		lock.writeLock().lock();
+		try {
+			for (Battery battery : event.getBatteries()) {
+				if (battery.getId() != null) {
+					put(battery);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Loads the given batteries into the sketches and marks them as loaded.
+	 * Batteries that were already written by a committed change are kept, as they are at least as recent
+	 * as the data read for the load.
+	 *
+	 * @param batteries The full list of batteries in the fleet.
+	 */
+	public void load(List<Battery> batteries) {
+		lock.writeLock().lock();
+		try {
+			for (Battery battery : batteries) {
+				if (battery.getId() != null && !bucketKeysById.containsKey(battery.getId())) {
+					put(battery);
+				}
+			}
+			loaded = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Estimates capacity quantiles and the number of distinct names of the batteries within a postcode range.
+	 * The battery count is exact.
+	 *
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @return The approximate statistics of the range with their error bounds.
+	 */
+	public CapacityStatisticsResponse statistics(String startPostcode, String endPostcode) {
+		if (startPostcode == null || startPostcode.isBlank() || endPostcode == null || endPostcode.isBlank()) {
+			throw new APIException("Start and end post codes are mandatory");
+		}
+		KllDoublesSketch capacities = KllDoublesSketch.newHeapInstance(quantileK);
+		Union names = new Union(distinctLgK);
+		long batteryCount = 0;
+
+		lock.readLock().lock();
+		try {
+			String startKey = bucketKey(startPostcode);
+			String endKey = bucketKey(endPostcode);
+			if (startKey.compareTo(endKey) <= 0) {
+				for (Map.Entry<String, Bucket> entry : buckets.subMap(startKey, true, endKey, true).entrySet()) {
+					Bucket bucket = entry.getValue();
+					if (entry.getKey().equals(startKey) || entry.getKey().equals(endKey)) {
+						// Only some batteries of a boundary bucket may lie in the range
+						Bucket inRange = new Bucket();
+						bucket.batteries.forEach((id, battery) -> {
+							if (battery.postcode.compareTo(startPostcode) >= 0 && battery.postcode.compareTo(endPostcode) <= 0) {
+								inRange.put(id, battery);
+							}
+						});
+						bucket = inRange;
+					}
+					capacities.merge(bucket.capacities);
+					names.update(bucket.names);
+					batteryCount += bucket.batteries.size();
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		HllSketch distinctNames = names.getResult();
+		return new CapacityStatisticsResponse(startPostcode, endPostcode, batteryCount,
+				quantile(capacities, 0.5), quantile(capacities, 0.9), quantile(capacities, 0.99),
+				KllSketch.getNormalizedRankError(quantileK, false),
+				Math.round(distinctNames.getEstimate()),
+				(long) Math.floor(distinctNames.getLowerBound(BOUNDS_STANDARD_DEVIATIONS)),
+				(long) Math.ceil(distinctNames.getUpperBound(BOUNDS_STANDARD_DEVIATIONS)));
+	}
+
+	private void put(Battery battery) {
+		SketchedBattery sketchedBattery = new SketchedBattery(battery.getPostcode(), battery.getName(), battery.getCapacity());
+		if (sketchedBattery.postcode == null) {
+			return;
+		}
+		String previousKey = bucketKeysById.get(battery.getId());
+		if (previousKey != null) {
+			Bucket previousBucket = buckets.get(previousKey);
+			if (sketchedBattery.equals(previousBucket.batteries.get(battery.getId()))) {
+				return;
+			}
+			previousBucket.batteries.remove(battery.getId());
+			if (previousBucket.batteries.isEmpty()) {
+				buckets.remove(previousKey);
+			} else {
+				previousBucket.rebuild();
+			}
+		}
+		String key = bucketKey(sketchedBattery.postcode);
+		buckets.computeIfAbsent(key, k -> new Bucket()).put(battery.getId(), sketchedBattery);
+		bucketKeysById.put(battery.getId(), key);
+	}
+
+	private String bucketKey(String postcode) {
+		return postcode.length() <= bucketPrefixLength ? postcode : postcode.substring(0, bucketPrefixLength);
+	}
+
+	private static Double quantile(KllDoublesSketch sketch, double rank) {
+		return sketch.isEmpty() ? null : sketch.getQuantile(rank);
+	}
+
+	private static int quantileK(double rankError) {
+		if (rankError <= 0 || rankError >= 1) {
+			throw new IllegalArgumentException("Quantile rank error must be between 0 and 1");
+		}
+		return Math.min(Math.max(KllSketch.getKFromEpsilon(rankError, false), 8), KllSketch.MAX_K);
+	}
+
+	private static int distinctLgK(double relativeError) {
+		if (relativeError <= 0 || relativeError >= 1) {
+			throw new IllegalArgumentException("Distinct count error must be between 0 and 1");
+		}
+		double registers = Math.pow(HLL_STANDARD_ERROR_FACTOR / relativeError, 2);
+		int lgK = (int) Math.ceil(Math.log(registers) / Math.log(2));
+		return Math.min(Math.max(lgK, MIN_HLL_LG_K), MAX_HLL_LG_K);
+	}
+
+	private record SketchedBattery(String postcode, String name, Integer capacity) {
+	}
+
+	private final class Bucket {
+
+		private final Map<Long, SketchedBattery> batteries = new HashMap<>();
+
+		private KllDoublesSketch capacities = KllDoublesSketch.newHeapInstance(quantileK);
+
+		private HllSketch names = new HllSketch(distinctLgK);
+
+		private void put(long id, SketchedBattery battery) {
+			batteries.put(id, battery);
+			add(battery);
+		}
+
+		private void add(SketchedBattery battery) {
+			if (battery.capacity != null) {
+				capacities.update(battery.capacity);
+			}
+			if (battery.name != null) {
+				names.update(battery.name);
+			}
+		}
+
+		private void rebuild() {
+			capacities = KllDoublesSketch.newHeapInstance(quantileK);
+			names = new HllSketch(distinctLgK);
+			batteries.values().forEach(this::add);
+		}
+	}
+}
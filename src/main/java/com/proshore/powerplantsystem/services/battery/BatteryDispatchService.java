@@ -0,0 +1,20 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanResponse;
+
+/**
+ * The BatteryDispatchService interface defines the selection of batteries to cover a watt demand.
+ * Implementations are expected to read batteries in capacity order and stop as soon as the demand is covered.
+ */
+public interface BatteryDispatchService {
+
+    /**
+     * Selects batteries within a postcode range whose combined capacity covers the target.
+     * @param dispatchPlanRequestParams The request parameters specifying the postcode range, target and policy.
+     * @return The selected batteries and their combined capacity, which falls short of the target
+     * only if all batteries in the range together do.
+     */
+    DispatchPlanResponse planDispatch(DispatchPlanRequestParams dispatchPlanRequestParams);
+
+}
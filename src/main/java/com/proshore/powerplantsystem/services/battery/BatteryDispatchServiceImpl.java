@@ -0,0 +1,437 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanResponse;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPolicy;
+import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Batteries are read from every overlapping shard in descending capacity order, page by page through the
+ * capacity index, and merged across shards. Selection stops reading as soon as the policy is satisfied,
+ * so the range is never sorted in memory. The smallest battery covering what is left of the demand is found
+ * with one seek per shard instead of reading on. When batteries are spread across postcode regions, one query
+ * per shard reads the next few batteries of all its regions at once.
+ */
+@Slf4j
+@Service
+public class BatteryDispatchServiceImpl implements BatteryDispatchService {
+
+	private static final int FIRST_PAGE_SIZE = 32;
+	private static final int MAX_PAGE_SIZE = 1024;
+	private static final int REGION_FIRST_PAGE_SIZE = 4;
+
+	private static final Comparator<Battery> BY_CAPACITY_DESCENDING = Comparator.comparing(Battery::getCapacity, Comparator.reverseOrder())
+			.thenComparing(Battery::getId, Comparator.reverseOrder());
+
+	private final BatteryRepository batteryRepository;
+
+	private final BatteryShardRouter batteryShardRouter;
+
+	public BatteryDispatchServiceImpl(final BatteryRepository batteryRepository, final BatteryShardRouter batteryShardRouter) {
+		this.batteryRepository = batteryRepository;
+		this.batteryShardRouter = batteryShardRouter;
+	}
+
+	@Override
+	public DispatchPlanResponse planDispatch(DispatchPlanRequestParams dispatchPlanRequestParams) {
+		String startPostcode = dispatchPlanRequestParams.getStartPostcode().trim();
+		String endPostcode = dispatchPlanRequestParams.getEndPostcode().trim();
+		DispatchPlanResponse dispatchPlanResponse = selectBatteries(new RangeCandidates(startPostcode, endPostcode),
+				dispatchPlanRequestParams.getTargetWattCapacity(), dispatchPlanRequestParams.getPolicy());
+		log.info("Planned dispatch of " + dispatchPlanResponse.getSelectedWattCapacity() + " watts from "
+				+ dispatchPlanResponse.getBatteries().size() + " batteries after scanning " + dispatchPlanResponse.getScannedBatteries());
+		return dispatchPlanResponse;
+	}
+
+	/**
+	 * Selects batteries to cover the target from batteries ordered by descending capacity, reading no further
+	 * than the policy needs.
+	 *
+	 * @param candidates         The batteries to select from.
+	 * @param targetWattCapacity The capacity to cover.
+	 * @param policy             The selection policy.
+	 * @return The selected batteries, in the order they were selected.
+	 */
+	public static DispatchPlanResponse selectBatteries(DispatchCandidates candidates, long targetWattCapacity, DispatchPolicy policy) {
+		Selection selection = new Selection(candidates, targetWattCapacity);
+		switch (policy) {
+			case LARGEST_FIRST -> selection.takeLargest(candidates.byCapacity());
+			case FEWEST_UNITS -> selection.takeFewest();
+			case SPREAD -> selection.takeSpread(candidates.byCapacityPerRegion());
+		}
+		return new DispatchPlanResponse(policy, targetWattCapacity, selection.selectedWattCapacity,
+				selection.selectedWattCapacity >= targetWattCapacity, selection.selected, selection.scanned);
+	}
+
+	/**
+	 * Returns the postcode region of a battery, the first three characters of its postcode.
+	 */
+	private static String regionOf(String postcode) {
+		return postcode.substring(0, Math.min(3, postcode.length()));
+	}
+
+	/**
+	 * Batteries selected so far and the number of batteries read to select them.
+	 */
+	private static final class Selection {
+
+		private final DispatchCandidates candidates;
+
+		private final long targetWattCapacity;
+
+		private final List<Battery> selected = new ArrayList<>();
+
+		private long selectedWattCapacity;
+
+		private int scanned;
+
+		private Selection(DispatchCandidates candidates, long targetWattCapacity) {
+			this.candidates = candidates;
+			this.targetWattCapacity = targetWattCapacity;
+		}
+
+		private boolean covered() {
+			return selectedWattCapacity >= targetWattCapacity;
+		}
+
+		private Battery next(Iterator<Battery> batteriesByCapacity) {
+			scanned++;
+			return batteriesByCapacity.next();
+		}
+
+		private void select(Battery battery) {
+			selected.add(battery);
+			selectedWattCapacity += battery.getCapacity();
+		}
+
+		private void takeLargest(Iterator<Battery> batteriesByCapacity) {
+			while (!covered() && batteriesByCapacity.hasNext()) {
+				select(next(batteriesByCapacity));
+			}
+		}
+
+		/**
+		 * The largest batteries give the fewest units. The last of them is then replaced by the smallest
+		 * battery from there on that still covers the remaining demand, found by a single seek.
+		 */
+		private void takeFewest() {
+			takeLargest(candidates.byCapacity());
+			if (!covered()) {
+				return;
+			}
+			Battery last = selected.remove(selected.size() - 1);
+			selectedWattCapacity -= last.getCapacity();
+			long remaining = targetWattCapacity - selectedWattCapacity;
+			Optional<Battery> smallestCovering = candidates.smallestCovering(remaining, last);
+			if (smallestCovering.isPresent()) {
+				scanned++;
+			}
+			select(smallestCovering.orElse(last));
+		}
+
+		/**
+		 * Every round takes the next battery of each postcode region, in capacity order, so no region gives
+		 * a second battery before every region has given one. Only the current battery of each region is held.
+		 */
+		private void takeSpread(List<Iterator<Battery>> regionsByCapacity) {
+			List<Iterator<Battery>> regions = regionsByCapacity;
+			while (!covered()) {
+				regions = regions.stream().filter(Iterator::hasNext).toList();
+				if (regions.isEmpty()) {
+					return;
+				}
+				List<Battery> round = new ArrayList<>(regions.size());
+				for (Iterator<Battery> region : regions) {
+					round.add(next(region));
+				}
+				round.sort(BY_CAPACITY_DESCENDING);
+				for (Battery battery : round) {
+					if (covered()) {
+						break;
+					}
+					select(battery);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The batteries of a postcode range on every overlapping shard.
+	 */
+	private final class RangeCandidates implements DispatchCandidates {
+
+		private final String startPostcode;
+
+		private final String endPostcode;
+
+		private final List<String> shards;
+
+		private RangeCandidates(String startPostcode, String endPostcode) {
+			this.startPostcode = startPostcode;
+			this.endPostcode = endPostcode;
+			this.shards = batteryShardRouter.shardsOverlapping(startPostcode, endPostcode);
+		}
+
+		@Override
+		public Iterator<Battery> byCapacity() {
+			// The first page of every shard is read in parallel, later pages only from the shards still needed
+			List<ShardCursor> cursors = batteryShardRouter.onShards(shards, shard -> {
+				ShardCursor cursor = new ShardCursor(shard, startPostcode, endPostcode, FIRST_PAGE_SIZE);
+				cursor.fetch();
+				return cursor;
+			});
+			return new CapacityOrderedBatteries(cursors);
+		}
+
+		@Override
+		public List<Iterator<Battery>> byCapacityPerRegion() {
+			// The first batteries of every region are read in parallel, a region spanning two shards is merged from both
+			Map<String, List<RegionCursor>> regions = new TreeMap<>();
+			for (ShardRegions shardRegions : batteryShardRouter.onShards(shards,
+					shard -> new ShardRegions(shard, startPostcode, endPostcode).fetch())) {
+				shardRegions.cursors.forEach((prefix, cursor) -> regions.computeIfAbsent(prefix, key -> new ArrayList<>()).add(cursor));
+			}
+			List<Iterator<Battery>> regionsByCapacity = new ArrayList<>(regions.size());
+			for (List<RegionCursor> cursors : regions.values()) {
+				regionsByCapacity.add(new CapacityOrderedBatteries(cursors));
+			}
+			return regionsByCapacity;
+		}
+
+		@Override
+		public Optional<Battery> smallestCovering(long minCapacity, Battery from) {
+			List<List<Battery>> smallestPerShard = batteryShardRouter.onShards(shards, shard -> batteryRepository
+					.findSmallestCoveringInPostcodeRange(startPostcode, endPostcode, (int) minCapacity,
+							from.getCapacity(), from.getId(), PageRequest.of(0, 1)));
+			return smallestPerShard.stream().flatMap(List::stream).max(BY_CAPACITY_DESCENDING);
+		}
+	}
+
+	/**
+	 * Position within a capacity ordering, reading further batteries on demand.
+	 */
+	private interface Cursor {
+
+		Battery head();
+
+		boolean hasNext();
+
+		Battery next();
+	}
+
+	/**
+	 * Merges the capacity ordered batteries of several shards into one capacity ordering.
+	 * Pages are read in separate transactions, so a battery whose capacity was lowered after it was read
+	 * can turn up again on a later page; every battery is returned only once.
+	 */
+	private static final class CapacityOrderedBatteries implements Iterator<Battery> {
+
+		private final PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> BY_CAPACITY_DESCENDING.compare(a.head(), b.head()));
+
+		private final Set<Long> returnedIds = new HashSet<>();
+
+		private CapacityOrderedBatteries(List<? extends Cursor> cursors) {
+			cursors.stream().filter(Cursor::hasNext).forEach(heads::add);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!heads.isEmpty() && returnedIds.contains(heads.peek().head().getId())) {
+				advance(heads.poll());
+			}
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Battery next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Battery battery = advance(heads.poll());
+			returnedIds.add(battery.getId());
+			return battery;
+		}
+
+		private Battery advance(Cursor cursor) {
+			Battery battery = cursor.next();
+			if (cursor.hasNext()) {
+				heads.add(cursor);
+			}
+			return battery;
+		}
+	}
+
+	/**
+	 * Position within the capacity ordering of one shard, reading pages of growing size on demand.
+	 */
+	private final class ShardCursor implements Cursor {
+
+		private final String shard;
+
+		private final String startPostcode;
+
+		private final String endPostcode;
+
+		private final Deque<Battery> page = new ArrayDeque<>();
+
+		private Integer afterCapacity = Integer.MAX_VALUE;
+
+		private Long afterId = Long.MAX_VALUE;
+
+		private int pageSize;
+
+		private boolean exhausted;
+
+		private ShardCursor(String shard, String startPostcode, String endPostcode, int pageSize) {
+			this.shard = shard;
+			this.startPostcode = startPostcode;
+			this.endPostcode = endPostcode;
+			this.pageSize = pageSize;
+		}
+
+		@Override
+		public Battery head() {
+			return page.peekFirst();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (page.isEmpty() && !exhausted) {
+				batteryShardRouter.onShard(shard, this::fetch);
+			}
+			return !page.isEmpty();
+		}
+
+		@Override
+		public Battery next() {
+			Battery battery = page.pollFirst();
+			if (battery == null) {
+				throw new NoSuchElementException();
+			}
+			return battery;
+		}
+
+		private ShardCursor fetch() {
+			List<Battery> batteries = batteryRepository.findInPostcodeRangeByCapacityDescending(startPostcode, endPostcode,
+					afterCapacity, afterId, PageRequest.of(0, pageSize));
+			page.addAll(batteries);
+			if (batteries.size() < pageSize) {
+				exhausted = true;
+			}
+			if (!batteries.isEmpty()) {
+				Battery last = batteries.get(batteries.size() - 1);
+				afterCapacity = last.getCapacity();
+				afterId = last.getId();
+			}
+			pageSize = Math.min(pageSize * 2, MAX_PAGE_SIZE);
+			return this;
+		}
+	}
+
+	/**
+	 * The postcode regions of a range on one shard, whose next batteries are read for all regions at once
+	 * by their rank within their region, in batches of growing size. Ranks shift when capacities change
+	 * between batches, so a battery can be read twice, which CapacityOrderedBatteries ignores, or be missed.
+	 */
+	private final class ShardRegions {
+
+		private final String shard;
+
+		private final String startPostcode;
+
+		private final String endPostcode;
+
+		private final Map<String, RegionCursor> cursors = new LinkedHashMap<>();
+
+		private int fetchedRank;
+
+		private int batchSize = REGION_FIRST_PAGE_SIZE;
+
+		private ShardRegions(String shard, String startPostcode, String endPostcode) {
+			this.shard = shard;
+			this.startPostcode = startPostcode;
+			this.endPostcode = endPostcode;
+		}
+
+		/**
+		 * Reads the next batch of every region. The regions are those of the first batch, and a region
+		 * returning less than a full batch has no further batteries on this shard.
+		 */
+		private ShardRegions fetch() {
+			boolean firstBatch = fetchedRank == 0;
+			Map<String, List<Battery>> batteriesByRegion = new LinkedHashMap<>();
+			for (Battery battery : batteryRepository.findRegionHeadsInPostcodeRange(startPostcode, endPostcode, fetchedRank, fetchedRank + batchSize)) {
+				batteriesByRegion.computeIfAbsent(regionOf(battery.getPostcode()), region -> new ArrayList<>()).add(battery);
+			}
+			if (firstBatch) {
+				batteriesByRegion.keySet().forEach(region -> cursors.put(region, new RegionCursor(this)));
+			}
+			for (Map.Entry<String, RegionCursor> region : cursors.entrySet()) {
+				List<Battery> batteries = batteriesByRegion.getOrDefault(region.getKey(), List.of());
+				region.getValue().page.addAll(batteries);
+				region.getValue().exhausted = batteries.size() < batchSize;
+			}
+			fetchedRank += batchSize;
+			batchSize = Math.min(batchSize * 2, MAX_PAGE_SIZE);
+			return this;
+		}
+	}
+
+	/**
+	 * Position within the capacity ordering of one postcode region on one shard.
+	 */
+	private final class RegionCursor implements Cursor {
+
+		private final ShardRegions shardRegions;
+
+		private final Deque<Battery> page = new ArrayDeque<>();
+
+		private boolean exhausted;
+
+		private RegionCursor(ShardRegions shardRegions) {
+			this.shardRegions = shardRegions;
+		}
+
+		@Override
+		public Battery head() {
+			return page.peekFirst();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (page.isEmpty() && !exhausted) {
+				batteryShardRouter.onShard(shardRegions.shard, shardRegions::fetch);
+			}
+			return !page.isEmpty();
+		}
+
+		@Override
+		public Battery next() {
+			Battery battery = page.pollFirst();
+			if (battery == null) {
+				throw new NoSuchElementException();
+			}
+			return battery;
+		}
+	}
+}
@@ -0,0 +1,617 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.exceptions.APIException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.CapacityHistogramBucket;
+import com.proshore.powerplantsystem.payloads.battery.CapacityHistogramResponse;
+import com.proshore.powerplantsystem.payloads.battery.PostcodePrefixTotal;
+import com.proshore.powerplantsystem.payloads.battery.PostcodePrefixTotalsResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The BatteryFleetSnapshot class keeps a columnar copy of the battery fleet in direct (off-heap) buffers
+ * so that analytics over the whole fleet can be computed with primitive loops instead of JPA entities.
+ * <p>
+ * Every row stores the battery id, its postcode normalized to an int with its digit count, its capacity,
+ * its last modification time and its name as UTF-8 bytes. The few postcodes that cannot be restored
+ * from their normalized value are also kept verbatim, so the rows can be exported losslessly. Rows are
+ * found by id through an open addressing index that is held in a direct buffer as well, so the snapshot
+ * keeps no objects per battery on the heap.
+ * The snapshot is refreshed incrementally from committed writes and loaded once by the analytics service.
+ * Writes made through other instances only arrive by reconciliation, so lookups are only served while
+ * the latest reconciliation is recent enough.
+ * A change older than the row it would replace is ignored, so a late reconciliation cannot undo a newer write.
+ */
+@Component
+public class BatteryFleetSnapshot {
+
+	static final int NO_POSTCODE = -1;
+	static final int NO_CAPACITY = Integer.MIN_VALUE;
+	static final int NO_ROW = -1;
+	static final long NO_LAST_MODIFIED = Long.MIN_VALUE;
+
+	private static final int INITIAL_ROWS = 1024;
+	private static final int INITIAL_NAME_BYTES = INITIAL_ROWS * 16;
+	private static final int INITIAL_VERBATIM_POSTCODE_BYTES = 1024;
+	private static final int MAX_HISTOGRAM_BUCKETS = 10_000;
+	private static final int MAX_PREFIX_LENGTH = 4;
+	private static final int MAX_POSTCODE_DIGITS = 9;
+	private static final int[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private ByteBuffer ids = allocate(INITIAL_ROWS * Long.BYTES);
+	private ByteBuffer rowsById = allocate(indexSlots(INITIAL_ROWS) * Integer.BYTES);
+	private ByteBuffer postcodes = allocate(INITIAL_ROWS * Integer.BYTES);
+	private ByteBuffer postcodeDigits = allocate(INITIAL_ROWS);
+	private ByteBuffer capacities = allocate(INITIAL_ROWS * Integer.BYTES);
+	private ByteBuffer lastModifiedMillis = allocate(INITIAL_ROWS * Long.BYTES);
+	private final StringColumn names = new StringColumn(INITIAL_ROWS, INITIAL_NAME_BYTES);
+	private final StringColumn verbatimPostcodes = new StringColumn(INITIAL_ROWS, INITIAL_VERBATIM_POSTCODE_BYTES);
+
+	private int rowCapacity = INITIAL_ROWS;
+	private int size;
+	private volatile boolean loaded;
+
+	/**
+	 * Until when the snapshot may serve lookups, or null before its first full read or reconciliation.
+	 */
+	private volatile Instant currentUntil;
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onBatteriesChanged(BatteriesChangedEvent event) {
+		lock.writeLock().lock();
+		try {
+			for (Battery battery : event.getBatteries()) {
+				if (battery.getId() != null) {
+					int row = rowOf(battery.getId());
+					if (row == NO_ROW) {
+						writeRow(appendRow(battery.getId()), battery);
+					} else if (!isOlderThanRow(battery, row)) {
+						writeRow(row, battery);
+					}
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Loads the given batteries into the snapshot and marks it as loaded.
+	 * Rows that were already written by a committed change are kept, as they are at least as recent
+	 * as the data read for the load.
+	 *
+	 * @param batteries The full list of batteries in the fleet.
+	 */
+	public void load(List<Battery> batteries) {
+		lock.writeLock().lock();
+		try {
+			for (Battery battery : batteries) {
+				if (battery.getId() != null && rowOf(battery.getId()) == NO_ROW) {
+					writeRow(appendRow(battery.getId()), battery);
+				}
+			}
+			loaded = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Records that the snapshot holds every write committed before its latest full read or reconciliation,
+	 * including those made through other instances, and may serve lookups until the given time.
+	 * @param currentUntil The time after which the snapshot no longer serves lookups unless reconciled again.
+	 */
+	public void markCurrentUntil(Instant currentUntil) {
+		this.currentUntil = currentUntil;
+	}
+
+	/**
+	 * Tells whether the snapshot is loaded and was reconciled recently enough to serve lookups.
+	 * @return true if lookups may be served from the snapshot.
+	 */
+	public boolean isCurrent() {
+		Instant until = currentUntil;
+		return loaded && until != null && Instant.now().isBefore(until);
+	}
+
+	/**
+	 * Returns the number of batteries held in the snapshot.
+	 * @return The number of rows.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Exports every row of the snapshot as a Battery.
+	 * @return The batteries held in the snapshot, in insertion order.
+	 */
+	public List<Battery> batteries() {
+		lock.readLock().lock();
+		try {
+			List<Battery> batteries = new ArrayList<>(size);
+			for (int row = 0; row < size; row++) {
+				batteries.add(batteryAt(row));
+			}
+			return batteries;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Passes every row of the snapshot to a RowWriter as stored, without creating a Battery per row.
+	 * Writes to the snapshot wait until the export has finished.
+	 * @param rowWriter The RowWriter receiving the rows in insertion order.
+	 * @throws IOException If the RowWriter fails.
+	 */
+	public void exportRows(RowWriter rowWriter) throws IOException {
+		lock.readLock().lock();
+		try {
+			rowWriter.begin(size);
+			ByteBuffer digitsBuffer = ByteBuffer.allocate(MAX_POSTCODE_DIGITS);
+			for (int row = 0; row < size; row++) {
+				rowWriter.row(ids.getLong(row * Long.BYTES), capacities.getInt(row * Integer.BYTES),
+						lastModifiedMillis.getLong(row * Long.BYTES), postcodeBytesOf(row, digitsBuffer), names.bytes(row));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the batteries that are missing from the snapshot or differ from their row, unless the row was
+	 * modified more recently. Used to reconcile the snapshot with a full read of the fleet.
+	 * @param batteries The batteries as read from the database.
+	 * @return The batteries whose row is missing or out of date.
+	 */
+	public List<Battery> outdatedBatteries(List<Battery> batteries) {
+		lock.readLock().lock();
+		try {
+			List<Battery> outdatedBatteries = new ArrayList<>();
+			for (Battery battery : batteries) {
+				if (battery.getId() == null) {
+					continue;
+				}
+				int row = rowOf(battery.getId());
+				if (row == NO_ROW || (!isOlderThanRow(battery, row) && !matchesRow(battery, row))) {
+					outdatedBatteries.add(battery);
+				}
+			}
+			return outdatedBatteries;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Looks up batteries by id.
+	 * @param batteryIds The ids of the batteries to look up.
+	 * @return The batteries held in the snapshot by id, or an empty map if the snapshot is not loaded.
+	 */
+	public Map<Long, Battery> batteries(Collection<Long> batteryIds) {
+		if (!loaded) {
+			return Map.of();
+		}
+		lock.readLock().lock();
+		try {
+			Map<Long, Battery> batteries = new HashMap<>();
+			for (Long batteryId : batteryIds) {
+				int row = rowOf(batteryId);
+				if (row != NO_ROW) {
+					batteries.put(batteryId, batteryAt(row));
+				}
+			}
+			return batteries;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts batteries into contiguous capacity buckets of the given width, from the bucket holding the
+	 * smallest capacity up to the one holding the largest. Batteries without a capacity are not counted.
+	 *
+	 * @param bucketWidth The width of every bucket in watts.
+	 * @return The capacity histogram of the fleet.
+	 */
+	public CapacityHistogramResponse capacityHistogram(int bucketWidth) {
+		if (bucketWidth <= 0) {
+			throw new APIException("Bucket width must be positive");
+		}
+		lock.readLock().lock();
+		try {
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			int counted = 0;
+			for (int row = 0; row < size; row++) {
+				int capacity = capacities.getInt(row * Integer.BYTES);
+				if (capacity != NO_CAPACITY) {
+					min = Math.min(min, capacity);
+					max = Math.max(max, capacity);
+					counted++;
+				}
+			}
+			if (counted == 0) {
+				return new CapacityHistogramResponse(bucketWidth, 0, List.of());
+			}
+
+			long firstBucket = Math.floorDiv((long) min, bucketWidth);
+			long bucketCount = Math.floorDiv((long) max, bucketWidth) - firstBucket + 1;
+			if (bucketCount > MAX_HISTOGRAM_BUCKETS) {
+				throw new APIException("Bucket width too small, histogram would have more than " + MAX_HISTOGRAM_BUCKETS + " buckets");
+			}
+			int[] counts = new int[(int) bucketCount];
+			for (int row = 0; row < size; row++) {
+				int capacity = capacities.getInt(row * Integer.BYTES);
+				if (capacity != NO_CAPACITY) {
+					counts[(int) (Math.floorDiv((long) capacity, bucketWidth) - firstBucket)]++;
+				}
+			}
+
+			List<CapacityHistogramBucket> buckets = new ArrayList<>(counts.length);
+			for (int i = 0; i < counts.length; i++) {
+				long lowerBound = (firstBucket + i) * bucketWidth;
+				buckets.add(new CapacityHistogramBucket(lowerBound, lowerBound + bucketWidth, counts[i]));
+			}
+			return new CapacityHistogramResponse(bucketWidth, counted, buckets);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Sums battery counts and capacities by the leading digits of their postcode.
+	 * Batteries whose postcode is not numeric or is shorter than the prefix are not counted.
+	 *
+	 * @param prefixLength The number of leading postcode digits to group by.
+	 * @return The totals of every non-empty prefix, in ascending prefix order.
+	 */
+	public PostcodePrefixTotalsResponse postcodePrefixTotals(int prefixLength) {
+		if (prefixLength < 1 || prefixLength > MAX_PREFIX_LENGTH) {
+			throw new APIException("Prefix length must be between 1 and " + MAX_PREFIX_LENGTH);
+		}
+		int prefixCount = (int) Math.pow(10, prefixLength);
+		int[] counts = new int[prefixCount];
+		long[] totals = new long[prefixCount];
+
+		lock.readLock().lock();
+		try {
+			for (int row = 0; row < size; row++) {
+				int postcode = postcodes.getInt(row * Integer.BYTES);
+				int digits = postcodeDigits.get(row);
+				if (postcode == NO_POSTCODE || digits < prefixLength) {
+					continue;
+				}
+				int prefix = postcode / POWERS_OF_TEN[digits - prefixLength];
+				int capacity = capacities.getInt(row * Integer.BYTES);
+				counts[prefix]++;
+				if (capacity != NO_CAPACITY) {
+					totals[prefix] += capacity;
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		String format = "%0" + prefixLength + "d";
+		List<PostcodePrefixTotal> prefixTotals = new ArrayList<>();
+		for (int prefix = 0; prefix < prefixCount; prefix++) {
+			if (counts[prefix] > 0) {
+				prefixTotals.add(new PostcodePrefixTotal(String.format(format, prefix), counts[prefix], totals[prefix]));
+			}
+		}
+		return new PostcodePrefixTotalsResponse(prefixLength, prefixTotals);
+	}
+
+	/**
+	 * Normalizes a postcode to its numeric value. Surrounding whitespace is ignored.
+	 * @param postcode The postcode as entered.
+	 * @return The numeric postcode, or NO_POSTCODE if it is not made of up to nine digits.
+	 */
+	static int normalizePostcode(String postcode) {
+		if (postcode == null) {
+			return NO_POSTCODE;
+		}
+		String trimmed = postcode.trim();
+		if (trimmed.isEmpty() || trimmed.length() > MAX_POSTCODE_DIGITS) {
+			return NO_POSTCODE;
+		}
+		int value = 0;
+		for (int i = 0; i < trimmed.length(); i++) {
+			char c = trimmed.charAt(i);
+			if (c < '0' || c > '9') {
+				return NO_POSTCODE;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private int appendRow(long id) {
+		if (size == rowCapacity) {
+			grow();
+		}
+		int row = size++;
+		ids.putLong(row * Long.BYTES, id);
+		index(id, row);
+		return row;
+	}
+
+	/**
+	 * Finds the row of a battery by linear probing from the slot its id hashes to.
+	 * A slot holds the row plus one, so zero marks a free slot.
+	 */
+	private int rowOf(long id) {
+		int mask = rowsById.capacity() / Integer.BYTES - 1;
+		for (int slot = slotOf(id, mask); ; slot = (slot + 1) & mask) {
+			int entry = rowsById.getInt(slot * Integer.BYTES);
+			if (entry == 0) {
+				return NO_ROW;
+			}
+			if (ids.getLong((entry - 1) * Long.BYTES) == id) {
+				return entry - 1;
+			}
+		}
+	}
+
+	private void index(long id, int row) {
+		int mask = rowsById.capacity() / Integer.BYTES - 1;
+		int slot = slotOf(id, mask);
+		while (rowsById.getInt(slot * Integer.BYTES) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		rowsById.putInt(slot * Integer.BYTES, row + 1);
+	}
+
+	private static int slotOf(long id, int mask) {
+		long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * Returns the number of index slots for a row capacity, which is a power of two, keeping the index at most half full.
+	 */
+	private static int indexSlots(int rows) {
+		return rows * 2;
+	}
+
+	private void writeRow(int row, Battery battery) {
+		int postcode = normalizePostcode(battery.getPostcode());
+		postcodes.putInt(row * Integer.BYTES, postcode);
+		postcodeDigits.put(row, (byte) (postcode == NO_POSTCODE ? 0 : battery.getPostcode().trim().length()));
+		capacities.putInt(row * Integer.BYTES, battery.getCapacity() != null ? battery.getCapacity() : NO_CAPACITY);
+		names.set(row, battery.getName());
+		lastModifiedMillis.putLong(row * Long.BYTES, battery.getLastModified() != null ? battery.getLastModified().toEpochMilli() : NO_LAST_MODIFIED);
+		verbatimPostcodes.set(row, null);
+		if (battery.getPostcode() != null && !battery.getPostcode().equals(postcodeOf(row))) {
+			verbatimPostcodes.set(row, battery.getPostcode());
+		}
+	}
+
+	private boolean isOlderThanRow(Battery battery, int row) {
+		long rowModified = lastModifiedMillis.getLong(row * Long.BYTES);
+		return battery.getLastModified() != null && rowModified != NO_LAST_MODIFIED
+				&& battery.getLastModified().toEpochMilli() < rowModified;
+	}
+
+	private boolean matchesRow(Battery battery, int row) {
+		Battery rowBattery = batteryAt(row);
+		Long modified = battery.getLastModified() != null ? battery.getLastModified().toEpochMilli() : null;
+		Long rowModified = rowBattery.getLastModified() != null ? rowBattery.getLastModified().toEpochMilli() : null;
+		return Objects.equals(battery.getName(), rowBattery.getName())
+				&& Objects.equals(battery.getPostcode(), rowBattery.getPostcode())
+				&& Objects.equals(battery.getCapacity(), rowBattery.getCapacity())
+				&& Objects.equals(modified, rowModified);
+	}
+
+	private Battery batteryAt(int row) {
+		Battery battery = new Battery();
+		battery.setId(ids.getLong(row * Long.BYTES));
+		battery.setName(names.get(row));
+		battery.setPostcode(postcodeOf(row));
+		int capacity = capacities.getInt(row * Integer.BYTES);
+		battery.setCapacity(capacity == NO_CAPACITY ? null : capacity);
+		long modified = lastModifiedMillis.getLong(row * Long.BYTES);
+		battery.setLastModified(modified == NO_LAST_MODIFIED ? null : Instant.ofEpochMilli(modified));
+		return battery;
+	}
+
+	private String postcodeOf(int row) {
+		String verbatimPostcode = verbatimPostcodes.get(row);
+		if (verbatimPostcode != null) {
+			return verbatimPostcode;
+		}
+		int postcode = postcodes.getInt(row * Integer.BYTES);
+		if (postcode == NO_POSTCODE) {
+			return null;
+		}
+		String digits = Integer.toString(postcode);
+		return "0".repeat(postcodeDigits.get(row) - digits.length()) + digits;
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the postcode of a row, formatting a normalized postcode into the given buffer.
+	 */
+	private ByteBuffer postcodeBytesOf(int row, ByteBuffer digitsBuffer) {
+		ByteBuffer verbatimPostcode = verbatimPostcodes.bytes(row);
+		if (verbatimPostcode != null) {
+			return verbatimPostcode;
+		}
+		int postcode = postcodes.getInt(row * Integer.BYTES);
+		if (postcode == NO_POSTCODE) {
+			return null;
+		}
+		int digits = postcodeDigits.get(row);
+		for (int i = digits - 1; i >= 0; i--, postcode /= 10) {
+			digitsBuffer.put(i, (byte) ('0' + postcode % 10));
+		}
+		return digitsBuffer.clear().limit(digits);
+	}
+
+	private void grow() {
+		int newCapacity = rowCapacity * 2;
+		ids = copyOf(ids, newCapacity * Long.BYTES);
+		postcodes = copyOf(postcodes, newCapacity * Integer.BYTES);
+		postcodeDigits = copyOf(postcodeDigits, newCapacity);
+		capacities = copyOf(capacities, newCapacity * Integer.BYTES);
+		lastModifiedMillis = copyOf(lastModifiedMillis, newCapacity * Long.BYTES);
+		names.grow(newCapacity);
+		verbatimPostcodes.grow(newCapacity);
+		rowCapacity = newCapacity;
+		rowsById = allocate(indexSlots(newCapacity) * Integer.BYTES);
+		for (int row = 0; row < size; row++) {
+			index(ids.getLong(row * Long.BYTES), row);
+		}
+	}
+
+	private static ByteBuffer copyOf(ByteBuffer buffer, int newBytes) {
+		ByteBuffer copy = allocate(newBytes);
+		copy.put(0, buffer, 0, buffer.capacity());
+		return copy;
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Receives the rows of the snapshot, e.g. to write them to a file.
+	 */
+	public interface RowWriter {
+
+		/**
+		 * Called once before the rows.
+		 * @param rows The number of rows that follow.
+		 */
+		void begin(int rows) throws IOException;
+
+		/**
+		 * Called for every row. The byte buffers are only valid during the call.
+		 * @param id                 The battery id.
+		 * @param capacity           The capacity, or NO_CAPACITY.
+		 * @param lastModifiedMillis The last modification time in epoch milliseconds, or NO_LAST_MODIFIED.
+		 * @param postcode           The UTF-8 postcode, or null.
+		 * @param name               The UTF-8 name, or null.
+		 */
+		void row(long id, int capacity, long lastModifiedMillis, ByteBuffer postcode, ByteBuffer name) throws IOException;
+	}
+
+	/**
+	 * A string per row, stored as UTF-8 bytes in a direct buffer and addressed by an offset and a length per row.
+	 * The bytes of replaced strings are reclaimed when the data buffer runs full.
+	 */
+	private static final class StringColumn {
+
+		private static final int NO_STRING = -1;
+
+		private ByteBuffer offsets;
+		private ByteBuffer lengths;
+		private ByteBuffer data;
+		private int dataSize;
+
+		private StringColumn(int rows, int dataBytes) {
+			offsets = allocate(rows * Integer.BYTES);
+			lengths = allocate(rows * Integer.BYTES);
+			data = allocate(dataBytes);
+			clear(0, rows);
+		}
+
+		private String get(int row) {
+			int length = lengths.getInt(row * Integer.BYTES);
+			if (length == NO_STRING) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			data.get(offsets.getInt(row * Integer.BYTES), bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Returns a view of the UTF-8 bytes of a row, which is only valid until the column is next written.
+		 */
+		private ByteBuffer bytes(int row) {
+			int length = lengths.getInt(row * Integer.BYTES);
+			return length == NO_STRING ? null : data.slice(offsets.getInt(row * Integer.BYTES), length);
+		}
+
+		private void set(int row, String value) {
+			if (value == null) {
+				lengths.putInt(row * Integer.BYTES, NO_STRING);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > lengths.getInt(row * Integer.BYTES)) {
+				if (dataSize + bytes.length > data.capacity()) {
+					compact(bytes.length);
+				}
+				offsets.putInt(row * Integer.BYTES, dataSize);
+				dataSize += bytes.length;
+			}
+			data.put(offsets.getInt(row * Integer.BYTES), bytes);
+			lengths.putInt(row * Integer.BYTES, bytes.length);
+		}
+
+		private void grow(int rows) {
+			int oldRows = lengths.capacity() / Integer.BYTES;
+			offsets = copyOf(offsets, rows * Integer.BYTES);
+			lengths = copyOf(lengths, rows * Integer.BYTES);
+			clear(oldRows, rows);
+		}
+
+		/**
+		 * Copies the strings of all rows to a new data buffer, with room for at least the given number of bytes.
+		 */
+		private void compact(int neededBytes) {
+			int rows = lengths.capacity() / Integer.BYTES;
+			int liveBytes = 0;
+			for (int row = 0; row < rows; row++) {
+				liveBytes += Math.max(lengths.getInt(row * Integer.BYTES), 0);
+			}
+			ByteBuffer compacted = allocate(Math.max(data.capacity(), (liveBytes + neededBytes) * 2));
+			int position = 0;
+			for (int row = 0; row < rows; row++) {
+				int length = lengths.getInt(row * Integer.BYTES);
+				if (length > 0) {
+					compacted.put(position, data, offsets.getInt(row * Integer.BYTES), length);
+				}
+				offsets.putInt(row * Integer.BYTES, position);
+				position += Math.max(length, 0);
+			}
+			data = compacted;
+			dataSize = position;
+		}
+
+		private void clear(int fromRow, int toRow) {
+			for (int row = fromRow; row < toRow; row++) {
+				lengths.putInt(row * Integer.BYTES, NO_STRING);
+			}
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * The BatteryFleetSnapshotStore class persists the fleet snapshot to a local file, periodically and on shutdown,
+ * so a restarted instance can warm its in-memory state without reading the whole battery table.
+ * <p>
+ * The file holds a header (magic, format version, row count), one record per battery (id, capacity, last
+ * modification time, postcode and name) and a trailing CRC-32C of everything before it. The rows are streamed
+ * from the off-heap snapshot through a small direct buffer to a temporary file, which is atomically moved into
+ * place, and read back through a memory mapping. After reading, only the batteries modified since the newest
+ * persisted modification are fetched from the database.
+ * <p>
+ * Writes only reach the snapshot of the instance that made them, so with several instances a snapshot
+ * misses the writes made through the others. The snapshot is therefore reconciled every reconcile interval
+ * with the batteries modified since the previous reconciliation, whether persistence is enabled or not, and
+ * a file older than the maximum age is not used at all. Staleness is bounded by the reconcile interval, and
+ * lookups only use the snapshot for the maximum lookup staleness after a reconciliation.
+ */
+@Slf4j
+@Component
+public class BatteryFleetSnapshotStore {
+
+	private static final int MAGIC = 0x42465331;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = 3 * Integer.BYTES;
+	private static final int CHECKSUM_BYTES = Long.BYTES;
+	private static final int NO_STRING = -1;
+
+	private final BatteryFleetSnapshot batteryFleetSnapshot;
+
+	private final BatteryService batteryService;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final BatteryFleetSnapshotStoreProperties batteryFleetSnapshotStoreProperties;
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * When the last full read or reconciliation of the fleet started, or null before the first one.
+	 */
+	private volatile Instant lastReconcile;
+
+	public BatteryFleetSnapshotStore(final BatteryFleetSnapshot batteryFleetSnapshot, final BatteryService batteryService,
+									 final ApplicationEventPublisher eventPublisher,
+									 final BatteryFleetSnapshotStoreProperties batteryFleetSnapshotStoreProperties) {
+		this.batteryFleetSnapshot = batteryFleetSnapshot;
+		this.batteryService = batteryService;
+		this.eventPublisher = eventPublisher;
+		this.batteryFleetSnapshotStoreProperties = batteryFleetSnapshotStoreProperties;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "battery-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long reconcileMillis = batteryFleetSnapshotStoreProperties.getReconcileInterval().toMillis();
+		this.scheduler.scheduleWithFixedDelay(this::reconcileQuietly, reconcileMillis, reconcileMillis, TimeUnit.MILLISECONDS);
+		if (batteryFleetSnapshotStoreProperties.isEnabled()) {
+			long intervalMillis = batteryFleetSnapshotStoreProperties.getInterval().toMillis();
+			this.scheduler.scheduleWithFixedDelay(this::persistQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public boolean isEnabled() {
+		return batteryFleetSnapshotStoreProperties.isEnabled();
+	}
+
+	/**
+	 * Reads the full battery fleet, from the persisted snapshot and the batteries modified since when possible,
+	 * otherwise from the database. A snapshot file older than the maximum age is not used.
+	 *
+	 * @return The full list of batteries in the fleet.
+	 */
+	public List<Battery> readFleet() {
+		Instant started = Instant.now();
+		boolean loadsSnapshot = !batteryFleetSnapshot.isLoaded();
+		List<Battery> batteries = readPersistedOrFullFleet();
+		if (loadsSnapshot) {
+			reconciled(started);
+		}
+		return batteries;
+	}
+
+	private List<Battery> readPersistedOrFullFleet() {
+		Path path = batteryFleetSnapshotStoreProperties.getPath();
+		if (isEnabled() && Files.exists(path)) {
+			try {
+				Instant written = Files.getLastModifiedTime(path).toInstant();
+				if (written.isBefore(Instant.now().minus(batteryFleetSnapshotStoreProperties.getMaxAge()))) {
+					log.info("Persisted battery fleet snapshot written at " + written + " is too old, reading the full fleet");
+					return batteryService.getBatteries();
+				}
+				List<Battery> persistedBatteries = read(path);
+				Instant newestModification = persistedBatteries.stream()
+						.map(Battery::getLastModified)
+						.filter(Objects::nonNull)
+						.max(Instant::compareTo)
+						.orElse(null);
+				if (newestModification != null) {
+					return catchUp(persistedBatteries, newestModification.minus(batteryFleetSnapshotStoreProperties.getCatchUpOverlap()));
+				}
+				log.info("Persisted battery fleet snapshot has no modification times, reading the full fleet");
+			} catch (IOException e) {
+				log.warn("Ignoring unreadable battery fleet snapshot " + path + ": " + e.getMessage());
+			}
+		}
+		return batteryService.getBatteries();
+	}
+
+	/**
+	 * Writes the fleet snapshot to disk if it has been loaded; a snapshot holding only recent writes
+	 * would otherwise be mistaken for the full fleet on the next start.
+	 *
+	 * @throws IOException If the snapshot cannot be written.
+	 */
+	public void persist() throws IOException {
+		if (batteryFleetSnapshot.isLoaded()) {
+			write(batteryFleetSnapshotStoreProperties.getPath(), batteryFleetSnapshot::exportRows);
+		}
+	}
+
+	/**
+	 * Compares the loaded snapshot with the batteries modified since the previous reconciliation, or since the
+	 * fleet was read, less the catch-up overlap, and publishes the batteries it is missing or holds out of date
+	 * as changed, so the snapshot and every other listener catch up on writes made through other instances.
+	 * Without a previous read or reconciliation the whole fleet is compared.
+	 *
+	 * @return The number of batteries that were missing or out of date.
+	 */
+	public int reconcile() {
+		if (!batteryFleetSnapshot.isLoaded()) {
+			return 0;
+		}
+		Instant started = Instant.now();
+		Instant since = lastReconcile;
+		List<Battery> batteries = since != null
+				? batteryService.getBatteriesModifiedSince(since.minus(batteryFleetSnapshotStoreProperties.getCatchUpOverlap()))
+				: batteryService.getBatteries();
+		List<Battery> outdatedBatteries = batteryFleetSnapshot.outdatedBatteries(batteries);
+		if (!outdatedBatteries.isEmpty()) {
+			log.info("Reconciled battery fleet snapshot with " + outdatedBatteries.size() + " batteries changed elsewhere");
+			eventPublisher.publishEvent(new BatteriesChangedEvent(outdatedBatteries));
+		}
+		reconciled(started);
+		return outdatedBatteries.size();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+		if (isEnabled()) {
+			persistQuietly();
+		}
+	}
+
+	/**
+	 * Writes the given batteries to a snapshot file, replacing it atomically.
+	 *
+	 * @param path      The snapshot file.
+	 * @param batteries The batteries to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void write(Path path, List<Battery> batteries) throws IOException {
+		write(path, rowWriter -> {
+			rowWriter.begin(batteries.size());
+			for (Battery battery : batteries) {
+				rowWriter.row(battery.getId(),
+						battery.getCapacity() != null ? battery.getCapacity() : BatteryFleetSnapshot.NO_CAPACITY,
+						battery.getLastModified() != null ? battery.getLastModified().toEpochMilli() : BatteryFleetSnapshot.NO_LAST_MODIFIED,
+						encode(battery.getPostcode()), encode(battery.getName()));
+			}
+		});
+	}
+
+	/**
+	 * Streams rows to a temporary file through a fixed size buffer and moves it into place once it is
+	 * complete and forced to disk.
+	 */
+	private static void write(Path path, RowSource rowSource) throws IOException {
+		Path directory = path.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				RecordWriter recordWriter = new RecordWriter(channel);
+				rowSource.writeTo(recordWriter);
+				recordWriter.finish();
+				channel.force(true);
+			}
+			Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Reads the batteries of a snapshot file through a memory mapping.
+	 *
+	 * @param path The snapshot file.
+	 * @return The batteries held in the file.
+	 * @throws IOException If the file cannot be read, is truncated, corrupt or of another format.
+	 */
+	public static List<Battery> read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES + CHECKSUM_BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("Unexpected snapshot size " + size);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int checksumPosition = (int) size - CHECKSUM_BYTES;
+			CRC32C checksum = new CRC32C();
+			checksum.update(buffer.slice(0, checksumPosition));
+			if (checksum.getValue() != buffer.getLong(checksumPosition)) {
+				throw new IOException("Snapshot checksum mismatch");
+			}
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				throw new IOException("Unsupported snapshot format");
+			}
+
+			int rows = buffer.getInt();
+			List<Battery> batteries = new ArrayList<>(rows);
+			for (int row = 0; row < rows; row++) {
+				Battery battery = new Battery();
+				battery.setId(buffer.getLong());
+				int capacity = buffer.getInt();
+				battery.setCapacity(capacity == BatteryFleetSnapshot.NO_CAPACITY ? null : capacity);
+				long lastModified = buffer.getLong();
+				battery.setLastModified(lastModified == BatteryFleetSnapshot.NO_LAST_MODIFIED ? null : Instant.ofEpochMilli(lastModified));
+				battery.setPostcode(getString(buffer));
+				battery.setName(getString(buffer));
+				batteries.add(battery);
+			}
+			if (buffer.position() != checksumPosition) {
+				throw new IOException("Unexpected data after " + rows + " snapshot rows");
+			}
+			return batteries;
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			throw new IOException("Malformed snapshot", e);
+		}
+	}
+
+	private List<Battery> catchUp(List<Battery> persistedBatteries, Instant since) {
+		List<Battery> modifiedBatteries = batteryService.getBatteriesModifiedSince(since);
+		Map<Long, Battery> batteriesById = new LinkedHashMap<>();
+		persistedBatteries.forEach(battery -> batteriesById.put(battery.getId(), battery));
+		modifiedBatteries.forEach(battery -> batteriesById.put(battery.getId(), battery));
+		log.info("Warm started battery fleet from " + persistedBatteries.size() + " persisted batteries and "
+				+ modifiedBatteries.size() + " modified since " + since);
+		return new ArrayList<>(batteriesById.values());
+	}
+
+	/**
+	 * Records that the snapshot holds every write committed before the given time, and may serve lookups
+	 * for the maximum lookup staleness from then on.
+	 */
+	private void reconciled(Instant started) {
+		lastReconcile = started;
+		batteryFleetSnapshot.markCurrentUntil(started.plus(batteryFleetSnapshotStoreProperties.getLookupMaxStaleness()));
+	}
+
+	private void persistQuietly() {
+		try {
+			persist();
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not persist battery fleet snapshot: " + e.getMessage());
+		}
+	}
+
+	private void reconcileQuietly() {
+		try {
+			reconcile();
+		} catch (RuntimeException e) {
+			log.warn("Could not reconcile battery fleet snapshot: " + e.getMessage());
+		}
+	}
+
+	private static ByteBuffer encode(String value) {
+		return value != null ? ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)) : null;
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == NO_STRING) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		buffer.get(value);
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the rows of a snapshot to a RowWriter.
+	 */
+	@FunctionalInterface
+	private interface RowSource {
+
+		void writeTo(BatteryFleetSnapshot.RowWriter rowWriter) throws IOException;
+	}
+
+	/**
+	 * Encodes rows as snapshot records into a direct buffer that is written to the file whenever it runs
+	 * full, updating the checksum with every chunk written.
+	 */
+	private static final class RecordWriter implements BatteryFleetSnapshot.RowWriter {
+
+		private static final int BUFFER_BYTES = 64 * 1024;
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+		private final CRC32C checksum = new CRC32C();
+
+		private RecordWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void begin(int rows) throws IOException {
+			reserve(HEADER_BYTES);
+			buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(rows);
+		}
+
+		@Override
+		public void row(long id, int capacity, long lastModifiedMillis, ByteBuffer postcode, ByteBuffer name) throws IOException {
+			reserve(Long.BYTES + Integer.BYTES + Long.BYTES);
+			buffer.putLong(id).putInt(capacity).putLong(lastModifiedMillis);
+			putString(postcode);
+			putString(name);
+		}
+
+		/**
+		 * Writes the buffered records and the checksum of everything written before it.
+		 */
+		private void finish() throws IOException {
+			flush();
+			buffer.putLong(checksum.getValue()).flip();
+			writeFully();
+		}
+
+		private void putString(ByteBuffer value) throws IOException {
+			reserve(Integer.BYTES);
+			if (value == null) {
+				buffer.putInt(NO_STRING);
+				return;
+			}
+			buffer.putInt(value.remaining());
+			while (value.hasRemaining()) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int length = Math.min(value.remaining(), buffer.remaining());
+				buffer.put(value.slice(value.position(), length));
+				value.position(value.position() + length);
+			}
+		}
+
+		private void reserve(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			checksum.update(buffer);
+			buffer.rewind();
+			writeFully();
+		}
+
+		private void writeFully() throws IOException {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Persistence of the fleet snapshot to local disk for warm starts, and its reconciliation with the writes
+ * of other instances, which runs whether persistence is enabled or not.
+ */
+@Data
+@ConfigurationProperties(prefix = "battery.snapshot.persistence")
+public class BatteryFleetSnapshotStoreProperties {
+
+	private boolean enabled;
+
+	private Path path = Path.of("battery-fleet.snapshot");
+
+	/**
+	 * How often the snapshot is written, in addition to on shutdown.
+	 */
+	private Duration interval = Duration.ofMinutes(5);
+
+	/**
+	 * How far before the newest persisted modification the catch-up query starts, covering clock skew
+	 * between instances and transactions that committed after the snapshot was written.
+	 */
+	private Duration catchUpOverlap = Duration.ofMinutes(5);
+
+	/**
+	 * Snapshot files last written longer ago than this are ignored and the full fleet is read instead.
+	 */
+	private Duration maxAge = Duration.ofHours(1);
+
+	/**
+	 * How often the snapshot is compared with the batteries modified since the previous reconciliation,
+	 * picking up batteries written through other instances, whose changes never reach this instance's
+	 * snapshot otherwise. The catch-up overlap also applies to these reads.
+	 */
+	private Duration reconcileInterval = Duration.ofSeconds(30);
+
+	/**
+	 * How long after a reconciliation started the snapshot still serves battery lookups, which then go to the
+	 * shards until the next reconciliation. Longer than the reconcile interval, so lookups keep being served
+	 * from the snapshot while reconciliations succeed.
+	 */
+	private Duration lookupMaxStaleness = Duration.ofMinutes(1);
+}
@@ -0,0 +1,102 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The BatteryFleetVersion class versions the battery fleet. ETags are derived from the latest last_modified
+ * time in the database, so every instance issues the same tag for the same fleet and a write through any
+ * instance invalidates it. Revalidating a tag costs one index lookup per shard instead of reading the fleet.
+ * <p>
+ * A write only changes the tag if its last_modified is later than all earlier ones, so the clocks of the
+ * instances writing batteries must be kept in sync. The local version, bumped after every committed write
+ * through this instance, only keys the coalescing of queries within this instance.
+ */
+@Component
+public class BatteryFleetVersion {
+
+	private final AtomicLong version = new AtomicLong();
+
+	private final BatteryRepository batteryRepository;
+
+	private final BatteryShardRouter batteryShardRouter;
+
+	public BatteryFleetVersion(final BatteryRepository batteryRepository, final BatteryShardRouter batteryShardRouter) {
+		this.batteryRepository = batteryRepository;
+		this.batteryShardRouter = batteryShardRouter;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onBatteriesChanged(BatteriesChangedEvent event) {
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Returns the local fleet version.
+	 * @return The number of committed writes seen by this instance.
+	 */
+	public long current() {
+		return version.get();
+	}
+
+	/**
+	 * Builds an ETag for the fleet as last modified in the database, optionally qualified by request
+	 * parameters that select a subset of the fleet (e.g. a normalized postcode range).
+	 * The tag is weak because the representation may be sent with different content codings.
+	 *
+	 * @param qualifiers The request parameters the response depends on.
+	 * @return The quoted ETag value.
+	 */
+	public String eTag(String... qualifiers) {
+		StringBuilder tag = new StringBuilder("W/\"").append(Long.toHexString(lastModifiedMicros()));
+		if (qualifiers.length > 0) {
+			String key = String.join("\n", qualifiers);
+			tag.append('-').append(DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8)));
+		}
+		return tag.append('"').toString();
+	}
+
+	private long lastModifiedMicros() {
+		Instant lastModified = batteryShardRouter.onShards(batteryShardRouter.allShards(), shard -> batteryRepository.findMaxLastModified())
+				.stream()
+				.filter(Objects::nonNull)
+				.max(Comparator.naturalOrder())
+				.orElse(Instant.EPOCH);
+		return ChronoUnit.MICROS.between(Instant.EPOCH, lastModified);
+	}
+
+	/**
+	 * Checks an If-None-Match header against an ETag using the weak comparison function.
+	 * @param ifNoneMatch The If-None-Match request header, may be null.
+	 * @param eTag        The current ETag.
+	 * @return true if the client already holds the current representation.
+	 */
+	public static boolean matches(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String opaqueTag = stripWeakPrefix(eTag);
+		for (String candidate : ifNoneMatch.split(",")) {
+			String trimmed = candidate.trim();
+			if (trimmed.equals("*") || stripWeakPrefix(trimmed).equals(opaqueTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String stripWeakPrefix(String eTag) {
+		return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+	}
+}
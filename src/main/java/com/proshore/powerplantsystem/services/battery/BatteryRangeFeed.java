@@ -0,0 +1,272 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.exceptions.APIException;
+import com.proshore.powerplantsystem.exceptions.ServiceOverloadedException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
+import com.proshore.powerplantsystem.payloads.battery.BatteryRangeFeedEvent;
+import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The BatteryRangeFeed class pushes incremental statistics of postcode ranges to Server-Sent Events subscribers.
+ * <p>
+ * Every subscriber keeps the capacity of each battery in its range, so a committed write is turned into a
+ * delta in constant time on the writer's thread and applying the same write twice has no effect. Deltas are
+ * queued in a bounded per-subscriber buffer and sent by a small dispatcher pool; a subscriber whose buffer
+ * overflows is dropped, so a stalled client never blocks writers or other subscribers.
+ */
+@Slf4j
+@Component
+public class BatteryRangeFeed {
+
+	private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * One permit per subscription that may still be opened, taken before a subscription is registered and
+	 * returned when it is removed.
+	 */
+	private final Semaphore subscriberSlots;
+
+	private final BatteryService batteryService;
+
+	private final BatteryRangeFeedProperties batteryRangeFeedProperties;
+
+	private final ExecutorService dispatcher;
+
+	private final Counter droppedSubscribers;
+
+	public BatteryRangeFeed(final BatteryService batteryService, final BatteryRangeFeedProperties batteryRangeFeedProperties,
+							final MeterRegistry meterRegistry) {
+		this.batteryService = batteryService;
+		this.batteryRangeFeedProperties = batteryRangeFeedProperties;
+		this.subscriberSlots = new Semaphore(batteryRangeFeedProperties.getMaxSubscribers());
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.dispatcher = Executors.newFixedThreadPool(batteryRangeFeedProperties.getDispatchThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "battery-feed-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.droppedSubscribers = Counter.builder("battery.feed.dropped")
+				.description("Range feed subscribers dropped because they did not keep up")
+				.register(meterRegistry);
+		Gauge.builder("battery.feed.subscribers", subscriptions, Set::size)
+				.description("Open range feed subscriptions")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Subscribes to the statistics of a postcode range. The first event is a SNAPSHOT of the range,
+	 * followed by a delta for every committed write affecting it.
+	 *
+	 * @param startPostcode The starting postcode of the range (inclusive).
+	 * @param endPostcode   The ending postcode of the range (inclusive).
+	 * @return The SseEmitter streaming the events.
+	 */
+	public SseEmitter subscribe(String startPostcode, String endPostcode) {
+		if (startPostcode == null || startPostcode.isBlank() || endPostcode == null || endPostcode.isBlank()) {
+			throw new APIException("Start and end post codes are mandatory");
+		}
+		if (!subscriberSlots.tryAcquire()) {
+			throw new ServiceOverloadedException("battery-feed", 5);
+		}
+		SseEmitter emitter = createEmitter(batteryRangeFeedProperties.getTimeout().toMillis());
+		Subscription subscription = new Subscription(startPostcode.trim(), endPostcode.trim(), emitter);
+		emitter.onCompletion(subscription::close);
+		emitter.onTimeout(subscription::close);
+		emitter.onError(error -> subscription.close());
+
+		// Registering before reading the range means no write committed in between is missed
+		subscriptions.add(subscription);
+		try {
+			BatteriesInRangeResponse batteriesInRange = batteryService.getBatteriesInPostcodeRange(
+					new BatteryRangeRequestParams(subscription.startPostcode, subscription.endPostcode));
+			subscription.initialize(batteriesInRange.getBatteriesInRange());
+		} catch (RuntimeException e) {
+			subscription.close();
+			throw e;
+		}
+		return emitter;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onBatteriesChanged(BatteriesChangedEvent event) {
+		for (Subscription subscription : subscriptions) {
+			subscription.apply(event.getBatteries());
+		}
+	}
+
+	public int subscriberCount() {
+		return subscriptions.size();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		subscriptions.forEach(subscription -> subscription.emitter.complete());
+		dispatcher.shutdownNow();
+	}
+
+	protected SseEmitter createEmitter(long timeoutMillis) {
+		return new SseEmitter(timeoutMillis);
+	}
+
+	private final class Subscription {
+
+		private final String startPostcode;
+
+		private final String endPostcode;
+
+		private final SseEmitter emitter;
+
+		private final BlockingQueue<BatteryRangeFeedEvent> buffer = new ArrayBlockingQueue<>(batteryRangeFeedProperties.getBufferSize());
+
+		private final AtomicBoolean draining = new AtomicBoolean();
+
+		private volatile boolean closed;
+
+		/**
+		 * Capacity of every battery in the range by id, or null until the subscription is initialized.
+		 */
+		private Map<Long, Integer> capacities;
+
+		/**
+		 * Writes received before initialization, applied on top of the initial range.
+		 */
+		private List<Battery> pending = new ArrayList<>();
+
+		private long totalWattCapacity;
+
+		private Subscription(String startPostcode, String endPostcode, SseEmitter emitter) {
+			this.startPostcode = startPostcode;
+			this.endPostcode = endPostcode;
+			this.emitter = emitter;
+		}
+
+		private synchronized void initialize(List<Battery> batteriesInRange) {
+			capacities = new HashMap<>();
+			for (Battery battery : batteriesInRange) {
+				capacities.put(battery.getId(), capacityOf(battery));
+				totalWattCapacity += capacityOf(battery);
+			}
+			enqueue(event(BatteryRangeFeedEvent.Type.SNAPSHOT, null));
+			List<Battery> writesDuringInitialization = pending;
+			pending = null;
+			apply(writesDuringInitialization);
+		}
+
+		private synchronized void apply(List<Battery> batteries) {
+			if (closed) {
+				return;
+			}
+			if (capacities == null) {
+				pending.addAll(batteries);
+				if (pending.size() > batteryRangeFeedProperties.getBufferSize()) {
+					drop();
+				}
+				return;
+			}
+			for (Battery battery : batteries) {
+				Integer previousCapacity = capacities.get(battery.getId());
+				BatteryRangeFeedEvent.Type type;
+				if (inRange(battery.getPostcode())) {
+					capacities.put(battery.getId(), capacityOf(battery));
+					totalWattCapacity += capacityOf(battery) - (previousCapacity != null ? previousCapacity : 0);
+					type = previousCapacity == null ? BatteryRangeFeedEvent.Type.ADDED : BatteryRangeFeedEvent.Type.CHANGED;
+				} else if (previousCapacity != null) {
+					capacities.remove(battery.getId());
+					totalWattCapacity -= previousCapacity;
+					type = BatteryRangeFeedEvent.Type.REMOVED;
+				} else {
+					continue;
+				}
+				if (!enqueue(event(type, battery))) {
+					return;
+				}
+			}
+		}
+
+		private BatteryRangeFeedEvent event(BatteryRangeFeedEvent.Type type, Battery battery) {
+			int batteryCount = capacities.size();
+			double averageWattCapacity = batteryCount == 0 ? 0.0 : (double) totalWattCapacity / batteryCount;
+			return new BatteryRangeFeedEvent(type, battery, batteryCount, totalWattCapacity, averageWattCapacity);
+		}
+
+		private boolean enqueue(BatteryRangeFeedEvent event) {
+			if (!buffer.offer(event)) {
+				drop();
+				return false;
+			}
+			if (draining.compareAndSet(false, true)) {
+				dispatcher.execute(this::drain);
+			}
+			return true;
+		}
+
+		private void drain() {
+			try {
+				BatteryRangeFeedEvent event;
+				while (!closed && (event = buffer.poll()) != null) {
+					emitter.send(SseEmitter.event()
+							.name(event.getType().name().toLowerCase(Locale.ROOT))
+							.data(event, MediaType.APPLICATION_JSON));
+				}
+			} catch (IOException | IllegalStateException e) {
+				log.debug("Closing battery range feed subscription: " + e.getMessage());
+				close();
+			} finally {
+				draining.set(false);
+				if (!closed && !buffer.isEmpty() && draining.compareAndSet(false, true)) {
+					dispatcher.execute(this::drain);
+				}
+			}
+		}
+
+		private void drop() {
+			log.warn("Dropping slow battery range feed subscriber for post codes " + startPostcode + " to " + endPostcode);
+			droppedSubscribers.increment();
+			close();
+			dispatcher.execute(emitter::complete);
+		}
+
+		private void close() {
+			closed = true;
+			if (subscriptions.remove(this)) {
+				subscriberSlots.release();
+			}
+			buffer.clear();
+		}
+
+		private boolean inRange(String postcode) {
+			return postcode != null && postcode.compareTo(startPostcode) >= 0 && postcode.compareTo(endPostcode) <= 0;
+		}
+
+		private static int capacityOf(Battery battery) {
+			return battery.getCapacity() != null ? battery.getCapacity() : 0;
+		}
+	}
+}
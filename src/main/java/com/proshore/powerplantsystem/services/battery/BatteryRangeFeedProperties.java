@@ -0,0 +1,36 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Limits of the Server-Sent Events feed of postcode range statistics.
+ */
+@Data
+@ConfigurationProperties(prefix = "battery.feed")
+public class BatteryRangeFeedProperties {
+
+	/**
+	 * Events buffered per subscriber; a subscriber whose buffer overflows is dropped.
+	 */
+	private int bufferSize = 256;
+
+	/**
+	 * Open subscriptions allowed at once. Every subscriber keeps the capacity of each battery in its range in
+	 * a HashMap, roughly 80 bytes of heap per battery, so the worst case is max-subscribers times the largest
+	 * subscribed range.
+	 */
+	private int maxSubscribers = 100;
+
+	/**
+	 * Threads sending buffered events to subscribers.
+	 */
+	private int dispatchThreads = 4;
+
+	/**
+	 * How long a subscription stays open before the client has to reconnect.
+	 */
+	private Duration timeout = Duration.ofMinutes(30);
+}
@@ -0,0 +1,105 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The BatteryRangeQueryCoalescer class deduplicates concurrent identical postcode range queries.
+ * The first caller for a range computes the response and every caller arriving while it is in flight
+ * waits for and shares that result instead of running its own query.
+ * <p>
+ * Callers only share a computation started at the same fleet version, so nobody receives a result
+ * older than the writes committed before their request.
+ */
+@Component
+public class BatteryRangeQueryCoalescer {
+
+	private final Map<RangeKey, CompletableFuture<BatteriesInRangeResponse>> inFlight = new ConcurrentHashMap<>();
+
+	private final BatteryFleetVersion batteryFleetVersion;
+
+	private final Counter computedQueries;
+
+	private final Counter coalescedQueries;
+
+	public BatteryRangeQueryCoalescer(final MeterRegistry meterRegistry, final BatteryFleetVersion batteryFleetVersion) {
+		this.batteryFleetVersion = batteryFleetVersion;
+		this.computedQueries = Counter.builder("battery.range.requests")
+				.description("Postcode range queries by whether they ran or joined an identical query in flight")
+				.tag("outcome", "computed")
+				.register(meterRegistry);
+		this.coalescedQueries = Counter.builder("battery.range.requests")
+				.description("Postcode range queries by whether they ran or joined an identical query in flight")
+				.tag("outcome", "coalesced")
+				.register(meterRegistry);
+		Gauge.builder("battery.range.coalescing.ratio", this, BatteryRangeQueryCoalescer::coalescingRatio)
+				.description("Share of postcode range queries answered by an identical query in flight")
+				.register(meterRegistry);
+		Gauge.builder("battery.range.in.flight", inFlight, Map::size)
+				.description("Distinct postcode range queries currently running")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Runs the query for the given range unless an identical one is already running, in which case
+	 * its result is awaited and returned.
+	 *
+	 * @param startPostcode The normalized starting postcode of the range.
+	 * @param endPostcode   The normalized ending postcode of the range.
+	 * @param query         Computes the response when no identical query is in flight.
+	 * @return The response, possibly shared with other callers.
+	 */
+	public BatteriesInRangeResponse coalesce(String startPostcode, String endPostcode, Supplier<BatteriesInRangeResponse> query) {
+		RangeKey key = new RangeKey(startPostcode, endPostcode, batteryFleetVersion.current());
+		CompletableFuture<BatteriesInRangeResponse> computation = new CompletableFuture<>();
+		CompletableFuture<BatteriesInRangeResponse> existing = inFlight.putIfAbsent(key, computation);
+		if (existing != null) {
+			coalescedQueries.increment();
+			return await(existing);
+		}
+
+		computedQueries.increment();
+		try {
+			BatteriesInRangeResponse response = query.get();
+			computation.complete(response);
+			return response;
+		} catch (RuntimeException | Error e) {
+			computation.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, computation);
+		}
+	}
+
+	/**
+	 * Returns the share of queries that joined an identical query in flight.
+	 * @return The coalescing ratio between 0 and 1.
+	 */
+	public double coalescingRatio() {
+		double total = computedQueries.count() + coalescedQueries.count();
+		return total == 0 ? 0.0 : coalescedQueries.count() / total;
+	}
+
+	private static BatteriesInRangeResponse await(CompletableFuture<BatteriesInRangeResponse> computation) {
+		try {
+			return computation.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	private record RangeKey(String startPostcode, String endPostcode, long fleetVersion) {
+	}
+}
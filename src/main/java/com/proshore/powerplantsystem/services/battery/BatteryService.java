@@ -1,9 +1,12 @@
 package com.proshore.powerplantsystem.services.battery;
 
 import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesByIdsResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegionsResponse;
 
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -32,6 +35,13 @@ public interface BatteryService {
      */
     List<Battery> getBatteries();
 
+    /**
+     * Retrieves the battery records inserted or updated at or after the given time.
+     * @param since The earliest last modification time to include.
+     * @return A list of Battery objects modified since the given time.
+     */
+    List<Battery> getBatteriesModifiedSince(Instant since);
+
     /**
      * Retrieves a specific battery record by its unique battery Id.
      * @param batteryId The unique id of the Battery.
@@ -39,6 +49,14 @@ public interface BatteryService {
      */
     Battery getBattery(Long batteryId);
 
+    /**
+     * Retrieves battery records by their unique battery Ids. Duplicate ids are looked up once.
+     * @param batteryIds The unique ids of the Batteries.
+     * @return A response object with the Battery objects found, in the order of the requested ids,
+     * and the ids for which no battery exists.
+     */
+    BatteriesByIdsResponse getBatteriesByIds(List<Long> batteryIds);
+
     /**
      * Updates an existing battery record with new data.
      * @param batteryId The unique battery Id of the Battery to be updated.
@@ -55,4 +73,12 @@ public interface BatteryService {
      */
     BatteriesInRangeResponse getBatteriesInPostcodeRange(BatteryRangeRequestParams batteryRangeRequestParams);
 
+    /**
+     * Retrieves battery counts and total watt capacity within a specified postcode range, broken down
+     * into regions by the first one, two and three characters of the postcode.
+     * @param batteryRangeRequestParams The request parameters specifying the postcode range.
+     * @return A response object with the range totals and a tree of regional totals.
+     */
+    PostcodeRegionsResponse getPostcodeRegionsInRange(BatteryRangeRequestParams batteryRangeRequestParams);
+
 }
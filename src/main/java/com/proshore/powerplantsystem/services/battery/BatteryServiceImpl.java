@@ -1,72 +1,350 @@
 package com.proshore.powerplantsystem.services.battery;
 
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
 import com.proshore.powerplantsystem.exceptions.APIException;
 import com.proshore.powerplantsystem.exceptions.DataNotFoundException;
 import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesByIdsResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegion;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegionsResponse;
 import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
-import jakarta.transaction.Transactional;
+import com.proshore.powerplantsystem.repositories.battery.PostcodePrefixAggregate;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import com.proshore.powerplantsystem.repositories.battery.sharding.ShardOutcome;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 
+/**
+ * Battery data is partitioned across shards by postcode, so every repository call goes through the
+ * BatteryShardRouter, which runs it in a transaction on the owning shard. Methods of this service
+ * must therefore not run inside an outer transaction.
+ */
 @Slf4j
-@Transactional
 @Service
 public class BatteryServiceImpl implements BatteryService {
 
+	private static final int POSTCODE_REGION_LEVELS = 3;
+
+	private static final int MAX_IDS_PER_QUERY = 200;
+
 	private final BatteryRepository batteryRepository;
 
-	public BatteryServiceImpl(final BatteryRepository batteryRepository) {
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final BatteryRangeQueryCoalescer batteryRangeQueryCoalescer;
+
+	private final BatteryShardRouter batteryShardRouter;
+
+	private final BatteryFleetSnapshot batteryFleetSnapshot;
+
+	public BatteryServiceImpl(final BatteryRepository batteryRepository, final ApplicationEventPublisher eventPublisher,
+							  final BatteryRangeQueryCoalescer batteryRangeQueryCoalescer, final BatteryShardRouter batteryShardRouter,
+							  final BatteryFleetSnapshot batteryFleetSnapshot) {
 		this.batteryRepository = batteryRepository;
+		this.eventPublisher = eventPublisher;
+		this.batteryRangeQueryCoalescer = batteryRangeQueryCoalescer;
+		this.batteryShardRouter = batteryShardRouter;
+		this.batteryFleetSnapshot = batteryFleetSnapshot;
 	}
 
 	@Override
 	public Battery createBattery(Battery battery) {
-		Battery batteryFromDb = batteryRepository.findByPostcode(battery.getPostcode());
-		if (batteryFromDb != null) {
-			throw new APIException("Battery already exists with battery post code: " + batteryFromDb.getPostcode());
-		}
-		log.info("Saving battery with post code: " + battery.getPostcode());
-		return batteryRepository.save(battery);
+		String shard = batteryShardRouter.shardFor(battery.getPostcode());
+		Battery savedBattery = batteryShardRouter.onShard(shard, () -> {
+			Battery batteryFromDb = batteryRepository.findByPostcode(battery.getPostcode());
+			if (batteryFromDb != null) {
+				throw new APIException("Battery already exists with battery post code: " + batteryFromDb.getPostcode());
+			}
+			log.info("Saving battery with post code: " + battery.getPostcode() + " on shard: " + shard);
+			return batteryRepository.save(battery);
+		});
+		eventPublisher.publishEvent(new BatteriesChangedEvent(List.of(savedBattery)));
+		return savedBattery;
 	}
 
+	/**
+	 * Batteries are saved on their owning shards in parallel, with one transaction per shard.
+	 * The saved batteries are returned grouped by shard. If a shard fails, the batteries committed on
+	 * the other shards are still published as changed before the failure is rethrown.
+	 */
 	@Override
 	public List<Battery> createBatteries(List<Battery> batteries) {
-		return batteryRepository.saveAll(batteries);
+		Map<String, List<Battery>> batteriesByShard = batteries.stream()
+				.collect(Collectors.groupingBy(battery -> batteryShardRouter.shardFor(battery.getPostcode()), LinkedHashMap::new, Collectors.toList()));
+		List<ShardOutcome<List<Battery>>> outcomes = batteryShardRouter.onShardsSettled(new ArrayList<>(batteriesByShard.keySet()),
+				shard -> batteryRepository.saveAll(batteriesByShard.get(shard)));
+
+		List<Battery> savedBatteries = outcomes.stream()
+				.filter(ShardOutcome::succeeded)
+				.flatMap(outcome -> outcome.result().stream())
+				.toList();
+		List<ShardOutcome<List<Battery>>> failures = outcomes.stream()
+				.filter(outcome -> !outcome.succeeded())
+				.toList();
+		if (failures.isEmpty() || !savedBatteries.isEmpty()) {
+			eventPublisher.publishEvent(new BatteriesChangedEvent(savedBatteries));
+		}
+		if (!failures.isEmpty()) {
+			log.warn("Saved " + savedBatteries.size() + " batteries but failed on shards: "
+					+ failures.stream().map(ShardOutcome::shard).toList());
+			RuntimeException failure = failures.get(0).failure();
+			failures.subList(1, failures.size()).forEach(outcome -> failure.addSuppressed(outcome.failure()));
+			throw failure;
+		}
+		return savedBatteries;
 	}
 
 	@Override
 	public List<Battery> getBatteries() {
-		return batteryRepository.findAll();
+		return batteryShardRouter.onShards(batteryShardRouter.allShards(), shard -> batteryRepository.findAll())
+				.stream()
+				.flatMap(List::stream)
+				.toList();
+	}
+
+	@Override
+	public List<Battery> getBatteriesModifiedSince(Instant since) {
+		return batteryShardRouter.onShards(batteryShardRouter.allShards(), shard -> batteryRepository.findByLastModifiedGreaterThanEqual(since))
+				.stream()
+				.flatMap(List::stream)
+				.toList();
 	}
 
+	/**
+	 * The id does not tell which shard holds the battery, so the shards are asked one after the other
+	 * until one has it. A lookup costs one query on the owning shard and those before it, and a query
+	 * on every shard only when the battery does not exist.
+	 */
 	@Override
 	public Battery getBattery(Long batteryId) {
-		return batteryRepository.findById(batteryId)
-				.orElseThrow(() -> new DataNotFoundException("Battery", "batteryId", batteryId));
+		for (String shard : batteryShardRouter.allShards()) {
+			Optional<Battery> battery = batteryShardRouter.onShard(shard, () -> batteryRepository.findById(batteryId));
+			if (battery.isPresent()) {
+				return battery.get();
+			}
+		}
+		throw new DataNotFoundException("Battery", "batteryId", batteryId);
 	}
 
+	/**
+	 * Batteries held in the fleet snapshot are served from it while it is current, i.e. was recently reconciled
+	 * with the writes of other instances. The others are fetched from every shard with IN queries of at most
+	 * MAX_IDS_PER_QUERY ids, so the ids still missing afterwards do not exist.
+	 */
+	@Override
+	public BatteriesByIdsResponse getBatteriesByIds(List<Long> batteryIds) {
+		List<Long> uniqueIds = batteryIds.stream()
+				.filter(Objects::nonNull)
+				.distinct()
+				.toList();
+		Map<Long, Battery> batteriesById = batteryFleetSnapshot.isCurrent()
+				? new HashMap<>(batteryFleetSnapshot.batteries(uniqueIds))
+				: new HashMap<>();
+
+		List<Long> idsToFetch = uniqueIds.stream()
+				.filter(batteryId -> !batteriesById.containsKey(batteryId))
+				.toList();
+		if (!idsToFetch.isEmpty()) {
+			batteryShardRouter.onShards(batteryShardRouter.allShards(), shard -> {
+						List<Battery> fetchedBatteries = new ArrayList<>();
+						for (int from = 0; from < idsToFetch.size(); from += MAX_IDS_PER_QUERY) {
+							List<Long> chunk = idsToFetch.subList(from, Math.min(from + MAX_IDS_PER_QUERY, idsToFetch.size()));
+							fetchedBatteries.addAll(batteryRepository.findAllById(chunk));
+						}
+						return fetchedBatteries;
+					})
+					.forEach(fetchedBatteries -> fetchedBatteries.forEach(battery -> batteriesById.put(battery.getId(), battery)));
+		}
+
+		List<Battery> batteries = new ArrayList<>(batteriesById.size());
+		List<Long> missingIds = new ArrayList<>();
+		for (Long batteryId : uniqueIds) {
+			Battery battery = batteriesById.get(batteryId);
+			if (battery != null) {
+				batteries.add(battery);
+			} else {
+				missingIds.add(batteryId);
+			}
+		}
+		return new BatteriesByIdsResponse(batteries, missingIds);
+	}
+
+	/**
+	 * The battery is updated on the shard holding it; moving it to a postcode owned by another shard is rejected.
+	 */
 	@Override
 	public Battery updateBattery(Long batteryId, Battery battery) {
-		return null;
+		String shard = batteryShardRouter.shardFor(getBattery(batteryId).getPostcode());
+		if (!shard.equals(batteryShardRouter.shardFor(battery.getPostcode()))) {
+			throw new APIException("Battery cannot be moved to post code " + battery.getPostcode() + " owned by another shard");
+		}
+		Battery updatedBattery = batteryShardRouter.onShard(shard, () -> {
+			Battery batteryFromDb = batteryRepository.findById(batteryId)
+					.orElseThrow(() -> new DataNotFoundException("Battery", "batteryId", batteryId));
+			Battery batteryWithPostcode = batteryRepository.findByPostcode(battery.getPostcode());
+			if (batteryWithPostcode != null && !batteryWithPostcode.getId().equals(batteryId)) {
+				throw new APIException("Battery already exists with battery post code: " + batteryWithPostcode.getPostcode());
+			}
+			batteryFromDb.setName(battery.getName());
+			batteryFromDb.setPostcode(battery.getPostcode());
+			batteryFromDb.setCapacity(battery.getCapacity());
+			log.info("Updating battery with id: " + batteryId);
+			return batteryRepository.save(batteryFromDb);
+		});
+		eventPublisher.publishEvent(new BatteriesChangedEvent(List.of(updatedBattery)));
+		return updatedBattery;
 	}
 
+	/**
+	 * Concurrent calls for the same range share one computation, which queries the overlapping shards
+	 * in parallel for their batteries in the range sorted by name, and merges the sorted results and
+	 * partial statistics.
+	 */
 	@Override
 	public BatteriesInRangeResponse getBatteriesInPostcodeRange(BatteryRangeRequestParams batteryRangeRequestParams) {
+		String startPostcode = batteryRangeRequestParams.startPostcode.trim();
+		String endPostcode = batteryRangeRequestParams.endPostcode.trim();
+		return batteryRangeQueryCoalescer.coalesce(startPostcode, endPostcode,
+				() -> calculateBatteriesInPostcodeRangeResponse(startPostcode, endPostcode));
+	}
+
+	private BatteriesInRangeResponse calculateBatteriesInPostcodeRangeResponse(String startPostcode, String endPostcode) {
+		List<List<Battery>> batteriesInRangeByShard = batteryShardRouter.onShards(batteryShardRouter.shardsOverlapping(startPostcode, endPostcode),
+				shard -> batteryRepository.findByPostcodeBetweenOrderByNameAsc(startPostcode, endPostcode));
+
 		BatteriesInRangeResponse batteriesInRangeResponses = new BatteriesInRangeResponse();
-		List<Battery> batteries = batteryRepository.findAll();
-		List<Battery> batteriesInRange = calculateBatteriesInPostcodeRange(batteries, batteryRangeRequestParams.startPostcode, batteryRangeRequestParams.endPostcode);
+		List<Battery> batteriesInRange = mergeSortedByName(batteriesInRangeByShard);
+		int batteryCount = 0;
+		for (List<Battery> shardBatteries : batteriesInRangeByShard) {
+			batteriesInRangeResponses.totalWattCapacity += calculateTotalWattCapacity(shardBatteries);
+			batteryCount += shardBatteries.size();
+		}
 		batteriesInRangeResponses.batteriesInRange = batteriesInRange;
-		batteriesInRangeResponses.totalWattCapacity = calculateTotalWattCapacity(batteriesInRange);
-		batteriesInRangeResponses.averageWattCapacity = calculateAverageWattCapacity(batteriesInRange);
+		batteriesInRangeResponses.averageWattCapacity = batteryCount == 0 ? 0.0 : (double) batteriesInRangeResponses.totalWattCapacity / batteryCount;
 		return batteriesInRangeResponses;
 	}
 
+	@Override
+	public PostcodeRegionsResponse getPostcodeRegionsInRange(BatteryRangeRequestParams batteryRangeRequestParams) {
+		String startPostcode = batteryRangeRequestParams.startPostcode.trim();
+		String endPostcode = batteryRangeRequestParams.endPostcode.trim();
+		List<PostcodePrefixAggregate> aggregates = batteryShardRouter.onShards(batteryShardRouter.shardsOverlapping(startPostcode, endPostcode),
+						shard -> batteryRepository.aggregateByPostcodePrefix(startPostcode, endPostcode))
+				.stream()
+				.flatMap(List::stream)
+				.toList();
+		return calculatePostcodeRegions(aggregates);
+	}
+
+	/**
+	 * Merges lists of batteries that are each sorted by name into one list sorted by name.
+	 *
+	 * @param sortedLists The lists sorted by name, e.g. one per shard.
+	 * @return A single list sorted by name.
+	 */
+	public static List<Battery> mergeSortedByName(List<List<Battery>> sortedLists) {
+		if (sortedLists.size() == 1) {
+			return sortedLists.get(0);
+		}
+		Comparator<Battery> byName = Comparator.comparing(Battery::getName);
+		PriorityQueue<ListCursor> heads = new PriorityQueue<>((a, b) -> byName.compare(a.head(), b.head()));
+		int size = 0;
+		for (List<Battery> sortedList : sortedLists) {
+			size += sortedList.size();
+			if (!sortedList.isEmpty()) {
+				heads.add(new ListCursor(sortedList));
+			}
+		}
+		List<Battery> merged = new ArrayList<>(size);
+		while (!heads.isEmpty()) {
+			ListCursor cursor = heads.poll();
+			merged.add(cursor.head());
+			if (cursor.advance()) {
+				heads.add(cursor);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Position within one of the sorted lists being merged.
+	 */
+	private static final class ListCursor {
+
+		private final List<Battery> batteries;
+
+		private int position;
+
+		private ListCursor(List<Battery> batteries) {
+			this.batteries = batteries;
+		}
+
+		private Battery head() {
+			return batteries.get(position);
+		}
+
+		private boolean advance() {
+			return ++position < batteries.size();
+		}
+	}
+
+	/**
+	 * Rolls three character postcode prefix aggregates up into a tree of one, two and three character regions.
+	 * Prefixes shorter than three characters only contribute to the levels they have characters for.
+	 *
+	 * @param aggregates The battery count and total capacity of every three character postcode prefix.
+	 * @return A response with the overall totals and the regions sorted by prefix at every level.
+	 */
+	public static PostcodeRegionsResponse calculatePostcodeRegions(List<PostcodePrefixAggregate> aggregates) {
+		PostcodeRegionsResponse response = new PostcodeRegionsResponse();
+		PostcodeRegion[] openRegions = new PostcodeRegion[POSTCODE_REGION_LEVELS];
+		List<PostcodePrefixAggregate> sortedAggregates = aggregates.stream()
+				.sorted(Comparator.comparing(PostcodePrefixAggregate::getPrefix))
+				.toList();
+
+		for (PostcodePrefixAggregate aggregate : sortedAggregates) {
+			long batteryCount = aggregate.getBatteryCount();
+			long totalWattCapacity = aggregate.getTotalWattCapacity() != null ? aggregate.getTotalWattCapacity() : 0L;
+			response.setBatteryCount(response.getBatteryCount() + batteryCount);
+			response.setTotalWattCapacity(response.getTotalWattCapacity() + totalWattCapacity);
+
+			List<PostcodeRegion> siblings = response.getRegions();
+			int levels = Math.min(POSTCODE_REGION_LEVELS, aggregate.getPrefix().length());
+			for (int level = 0; level < levels; level++) {
+				String prefix = aggregate.getPrefix().substring(0, level + 1);
+				PostcodeRegion region = openRegions[level];
+				if (region == null || !region.getPrefix().equals(prefix)) {
+					// Prefixes arrive sorted, so a new prefix closes the previous region at this level and below
+					region = new PostcodeRegion(prefix);
+					siblings.add(region);
+					openRegions[level] = region;
+					for (int deeper = level + 1; deeper < POSTCODE_REGION_LEVELS; deeper++) {
+						openRegions[deeper] = null;
+					}
+				}
+				region.setBatteryCount(region.getBatteryCount() + batteryCount);
+				region.setTotalWattCapacity(region.getTotalWattCapacity() + totalWattCapacity);
+				siblings = region.getRegions();
+			}
+		}
+		return response;
+	}
+
 	/**
 	 * Filters a list of batteries to include only those within a specified postcode range
 	 * and sorts them alphabetically by name.
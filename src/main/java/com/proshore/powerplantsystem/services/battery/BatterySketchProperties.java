@@ -0,0 +1,28 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Bucketing and error bounds of the approximate postcode range statistics.
+ */
+@Data
+@ConfigurationProperties(prefix = "battery.sketches")
+public class BatterySketchProperties {
+
+	/**
+	 * Leading postcode characters forming a bucket. Longer prefixes mean more buckets to merge per range
+	 * but fewer batteries to scan exactly at the range boundaries.
+	 */
+	private int bucketPrefixLength = 3;
+
+	/**
+	 * Normalized rank error of the capacity quantiles, e.g. 0.01 for p50 to lie between the true p49 and p51.
+	 */
+	private double quantileRankError = 0.01;
+
+	/**
+	 * Relative standard error of the distinct name count.
+	 */
+	private double distinctCountError = 0.02;
+}
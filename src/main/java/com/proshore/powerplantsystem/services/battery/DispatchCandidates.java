@@ -0,0 +1,36 @@
+package com.proshore.powerplantsystem.services.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The DispatchCandidates interface defines how the dispatch planner reads the batteries of a postcode range.
+ * Batteries are ordered by descending capacity with ties broken by descending id.
+ */
+public interface DispatchCandidates {
+
+	/**
+	 * Reads the batteries of the range in capacity order.
+	 * @return The batteries in descending capacity order, read on demand.
+	 */
+	Iterator<Battery> byCapacity();
+
+	/**
+	 * Reads the batteries of every three character postcode region of the range in capacity order.
+	 * @return One iterator per region, each in descending capacity order and read on demand.
+	 */
+	List<Iterator<Battery>> byCapacityPerRegion();
+
+	/**
+	 * Finds the smallest battery that still covers a demand, among the batteries from a given one onwards
+	 * in capacity order.
+	 * @param minCapacity The demand the battery has to cover.
+	 * @param from        The first battery in capacity order to consider.
+	 * @return The battery with the least capacity of at least minCapacity, or empty if there is none.
+	 */
+	Optional<Battery> smallestCovering(long minCapacity, Battery from);
+
+}
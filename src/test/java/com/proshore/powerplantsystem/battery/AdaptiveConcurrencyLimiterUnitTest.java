@@ -0,0 +1,113 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.admission.AdaptiveConcurrencyLimiter;
+import com.proshore.powerplantsystem.admission.AdmissionControlProperties;
+import com.proshore.powerplantsystem.exceptions.ServiceOverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimiterUnitTest {
+
+    @Test
+    public void testRejectsWhenLimitReachedAndQueueFull() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("battery-range", limit(2, 0, Duration.ofMinutes(1)));
+
+        limiter.acquire();
+        limiter.acquire();
+
+        ServiceOverloadedException e = assertThrows(ServiceOverloadedException.class, limiter::acquire);
+        assertEquals(1, e.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void testQueuedRequestIsAdmittedWhenPermitReleased() throws Exception {
+        AdmissionControlProperties.Limit settings = limit(1, 1, Duration.ofMinutes(1));
+        settings.setMaxWait(Duration.ofSeconds(5));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("battery-range", settings);
+        long start = limiter.acquire();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> queued = executor.submit(limiter::acquire);
+            Thread.sleep(50);
+            assertFalse(queued.isDone());
+
+            limiter.release(start);
+
+            assertNotNull(queued.get(5, TimeUnit.SECONDS));
+            assertEquals(1, limiter.inFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueuedRequestTimesOut() {
+        AdmissionControlProperties.Limit settings = limit(1, 1, Duration.ofMinutes(1));
+        settings.setMaxWait(Duration.ofMillis(20));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("battery-range", settings);
+        limiter.acquire();
+
+        assertThrows(ServiceOverloadedException.class, limiter::acquire);
+    }
+
+    @Test
+    public void testSlowRequestsShrinkLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("battery-range", limit(10, 0, Duration.ZERO));
+
+        for (int i = 0; i < 5; i++) {
+            limiter.release(limiter.acquire() - 1);
+        }
+
+        assertEquals(5, limiter.currentLimit());
+    }
+
+    @Test
+    public void testBurstOfSlowRequestsShrinksLimitOnce() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("battery-range", limit(10, 0, Duration.ZERO));
+
+        long[] burst = new long[8];
+        for (int i = 0; i < burst.length; i++) {
+            burst[i] = limiter.acquire();
+        }
+        for (long start : burst) {
+            limiter.release(start);
+        }
+
+        // The requests were admitted together, so their latencies are one congestion signal
+        assertEquals(9, limiter.currentLimit());
+
+        limiter.release(limiter.acquire());
+
+        assertEquals(8, limiter.currentLimit());
+    }
+
+    @Test
+    public void testFastRequestsGrowSaturatedLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("battery-range", limit(2, 0, Duration.ofMinutes(1)));
+
+        for (int i = 0; i < 10; i++) {
+            long first = limiter.acquire();
+            long second = limiter.acquire();
+            limiter.release(second);
+            limiter.release(first);
+        }
+
+        assertTrue(limiter.currentLimit() > 2);
+    }
+
+    private static AdmissionControlProperties.Limit limit(int initialLimit, int maxQueue, Duration targetLatency) {
+        AdmissionControlProperties.Limit settings = new AdmissionControlProperties.Limit();
+        settings.setInitialLimit(initialLimit);
+        settings.setMaxQueue(maxQueue);
+        settings.setTargetLatency(targetLatency);
+        return settings;
+    }
+}
@@ -0,0 +1,89 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.exceptions.APIException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.CapacityStatisticsResponse;
+import com.proshore.powerplantsystem.services.battery.BatteryCapacitySketches;
+import com.proshore.powerplantsystem.services.battery.BatterySketchProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatteryCapacitySketchesUnitTest {
+
+    private BatteryCapacitySketches sketches;
+
+    @BeforeEach
+    public void setUp() {
+        sketches = new BatteryCapacitySketches(new BatterySketchProperties());
+
+        // Postcodes 6000 to 6999 with capacities 1000 to 1999 watts and 100 distinct names
+        List<Battery> batteries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batteries.add(battery((long) i + 1, "Battery " + (i % 100), String.valueOf(6000 + i), 1000 + i));
+        }
+        sketches.load(batteries);
+    }
+
+    @Test
+    public void testStatisticsOfWholeRange() {
+        CapacityStatisticsResponse statistics = sketches.statistics("6000", "6999");
+
+        assertEquals(1000, statistics.getBatteryCount());
+        assertWithinRankError(1500, statistics.getP50WattCapacity(), statistics.getQuantileRankError());
+        assertWithinRankError(1900, statistics.getP90WattCapacity(), statistics.getQuantileRankError());
+        assertWithinRankError(1990, statistics.getP99WattCapacity(), statistics.getQuantileRankError());
+        assertTrue(statistics.getDistinctNamesLowerBound() <= 100 && 100 <= statistics.getDistinctNamesUpperBound());
+    }
+
+    @Test
+    public void testBoundaryBucketsAreCountedExactly() {
+        // 6055 to 6104 only partly covers the buckets 605 and 610
+        CapacityStatisticsResponse statistics = sketches.statistics("6055", "6104");
+
+        assertEquals(50, statistics.getBatteryCount());
+        assertWithinRankError(1080, statistics.getP50WattCapacity(), statistics.getQuantileRankError());
+        assertTrue(statistics.getDistinctNamesLowerBound() <= 50 && 50 <= statistics.getDistinctNamesUpperBound());
+    }
+
+    @Test
+    public void testUpdatedBatteryMovesBetweenBuckets() {
+        sketches.onBatteriesChanged(new BatteriesChangedEvent(List.of(battery(1L, "Battery 0", "7000", 50000))));
+
+        assertEquals(999, sketches.statistics("6000", "6999").getBatteryCount());
+        CapacityStatisticsResponse moved = sketches.statistics("7000", "7999");
+        assertEquals(1, moved.getBatteryCount());
+        assertEquals(50000.0, moved.getP99WattCapacity());
+        assertEquals(1, moved.getDistinctNames());
+    }
+
+    @Test
+    public void testEmptyRange() {
+        CapacityStatisticsResponse statistics = sketches.statistics("0800", "0899");
+
+        assertEquals(0, statistics.getBatteryCount());
+        assertNull(statistics.getP50WattCapacity());
+        assertEquals(0, statistics.getDistinctNames());
+    }
+
+    @Test
+    public void testStatisticsRequirePostcodes() {
+        assertThrows(APIException.class, () -> sketches.statistics(" ", "6999"));
+    }
+
+    private static void assertWithinRankError(double expected, double actual, double rankError) {
+        // Capacities are one watt apart, so a rank error over 1000 batteries is the same number of watts
+        assertEquals(expected, actual, Math.ceil(rankError * 1000) + 1);
+    }
+
+    private static Battery battery(Long id, String name, String postcode, int capacity) {
+        Battery battery = new Battery(name, postcode, capacity);
+        battery.setId(id);
+        return battery;
+    }
+}
@@ -2,9 +2,15 @@ package com.proshore.powerplantsystem.battery;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proshore.powerplantsystem.exceptions.ServiceOverloadedException;
 import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesByIdsResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanResponse;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPolicy;
+import com.proshore.powerplantsystem.services.battery.BatteryDispatchService;
 import com.proshore.powerplantsystem.services.battery.BatteryService;
 import org.hamcrest.core.Is;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,6 +19,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
@@ -24,9 +31,13 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -51,6 +62,9 @@ public class BatteryControllerUnitTest {
     @MockBean
     private BatteryService batteryService;
 
+    @MockBean
+    private BatteryDispatchService batteryDispatchService;
+
     /**
      * This method sets up the behavior of the BatteryService's createBattery and createBatteries methods using Mockito's.
      * It ensures that when createBattery is called with any Battery object, it returns a Battery object with an ID.
@@ -202,6 +216,189 @@ public class BatteryControllerUnitTest {
 
     }
 
+    /**
+     * This test case validates conditional retrieval of batteries. The ETag returned by the first request is sent back
+     * in If-None-Match, and as the fleet has not changed the second request gets a 304 (Not Modified) without the
+     * BatteryService being called again.
+     */
+    @Test
+    public void testGetBatteriesNotModified() throws Exception {
+        given(batteryService.getBatteries()).willReturn(List.of(new Battery("Cannington", "6107", 13500)));
+
+        MvcResult mvcResult = mockMvc.perform(get("/battery/batteries"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn();
+        String eTag = mvcResult.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/battery/batteries")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag));
+
+        verify(batteryService, times(1)).getBatteries();
+    }
+
+    /**
+     * This test case validates that an ETag issued for one postcode range is not accepted for another range.
+     */
+    @Test
+    public void testGetBatteriesInPostcodeRangeETagIsPerRange() throws Exception {
+        when(batteryService.getBatteriesInPostcodeRange(any())).thenReturn(new BatteriesInRangeResponse());
+
+        MvcResult mvcResult = mockMvc.perform(post("/battery/range")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new BatteryRangeRequestParams("6050", "6200"))))
+                .andExpect(status().isOk())
+                .andReturn();
+        String eTag = mvcResult.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(post("/battery/range")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new BatteryRangeRequestParams("6050", "6200"))))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(post("/battery/range")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new BatteryRangeRequestParams("6000", "6999"))))
+                .andExpect(status().isOk());
+    }
+
+    /**
+     * This test case validates that an ETag issued for a postcode range is accepted for the same range with surrounding
+     * whitespace, as both select the same batteries.
+     */
+    @Test
+    public void testGetBatteriesInPostcodeRangeETagIgnoresWhitespace() throws Exception {
+        when(batteryService.getBatteriesInPostcodeRange(any())).thenReturn(new BatteriesInRangeResponse());
+
+        MvcResult mvcResult = mockMvc.perform(post("/battery/range")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new BatteryRangeRequestParams("6050", "6200"))))
+                .andExpect(status().isOk())
+                .andReturn();
+        String eTag = mvcResult.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(post("/battery/range")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new BatteryRangeRequestParams(" 6050", "6200 "))))
+                .andExpect(status().isNotModified());
+    }
+
+    /**
+     * This test case validates the retrieval of a single battery through an HTTP GET request to the "/battery/{batteryId}" endpoint.
+     */
+    @Test
+    public void testGetBattery() throws Exception {
+        Battery battery = new Battery("Cannington", "6107", 13500);
+        battery.setId(7L);
+        given(batteryService.getBattery(7L)).willReturn(battery);
+
+        mockMvc.perform(get("/battery/7"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(7))
+                .andExpect(jsonPath("$.name").value("Cannington"));
+    }
+
+    /**
+     * Test case for looking up several batteries by id, where missing ids are reported rather than failing the request.
+     */
+    @Test
+    public void testGetBatteriesByIds() throws Exception {
+        Battery battery = new Battery("Cannington", "6107", 13500);
+        battery.setId(7L);
+        given(batteryService.getBatteriesByIds(List.of(7L, 8L, 7L)))
+                .willReturn(new BatteriesByIdsResponse(List.of(battery), List.of(8L)));
+
+        mockMvc.perform(post("/battery/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\": [7, 8, 7]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.batteries[0].id").value(7))
+                .andExpect(jsonPath("$.missingIds[0]").value(8));
+
+        mockMvc.perform(post("/battery/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\": []}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test case for a request rejected by admission control, which the GlobalExceptionHandler turns into a
+     * 503 (Service Unavailable) response telling the client when to retry.
+     */
+    @Test
+    public void testServiceOverloaded() throws Exception {
+        given(batteryService.getBatteries()).willThrow(new ServiceOverloadedException("battery-list", 3));
+
+        mockMvc.perform(get("/battery/batteries"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"))
+                .andExpect(jsonPath("$.status").value(false))
+                .andExpect(jsonPath("$.message").value("Too many concurrent battery-list requests, retry after 3 seconds"));
+    }
+
+    /**
+     * Test case for planning a dispatch, which hands the validated request to the BatteryDispatchService.
+     */
+    @Test
+    public void testPlanDispatch() throws Exception {
+        Battery battery = new Battery("Midland", "6057", 50500);
+        battery.setId(2L);
+        DispatchPlanRequestParams requestParams = new DispatchPlanRequestParams("6000", "6999", 50000L, DispatchPolicy.LARGEST_FIRST);
+        given(batteryDispatchService.planDispatch(requestParams))
+                .willReturn(new DispatchPlanResponse(DispatchPolicy.LARGEST_FIRST, 50000, 50500, true, List.of(battery), 1));
+
+        mockMvc.perform(post("/battery/range/dispatch-plan")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(requestParams)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.targetMet").value(true))
+                .andExpect(jsonPath("$.batteries[0].id").value(2));
+    }
+
+    /**
+     * Test case for the validation of a dispatch plan request, which is rejected before the BatteryDispatchService is called.
+     */
+    @Test
+    public void testPlanDispatchValidation() throws Exception {
+        mockMvc.perform(post("/battery/range/dispatch-plan")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new DispatchPlanRequestParams("6000", "6999", 0L, DispatchPolicy.SPREAD))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.targetWattCapacity").value("Target watt capacity must be positive"));
+
+        mockMvc.perform(post("/battery/range/dispatch-plan")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new DispatchPlanRequestParams("6000", "6999", -1L, DispatchPolicy.SPREAD))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.targetWattCapacity").value("Target watt capacity must be positive"));
+
+        mockMvc.perform(post("/battery/range/dispatch-plan")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new DispatchPlanRequestParams("6000", "6999", 50000L, null))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.policy").value("Dispatch policy is mandatory"));
+
+        mockMvc.perform(post("/battery/range/dispatch-plan")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new DispatchPlanRequestParams(" ", "", 50000L, DispatchPolicy.SPREAD))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.startPostcode").value("Start post code is mandatory"))
+                .andExpect(jsonPath("$.endPostcode").value("End post code is mandatory"));
+
+        // A policy that is not one of DispatchPolicy cannot be read at all
+        mockMvc.perform(post("/battery/range/dispatch-plan")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"startPostcode\": \"6000\", \"endPostcode\": \"6999\", \"targetWattCapacity\": 50000, \"policy\": \"CHEAPEST\"}"))
+                .andExpect(status().isBadRequest());
+
+        verify(batteryDispatchService, never()).planDispatch(any());
+    }
+
     private static final AtomicLong idCounter = new AtomicLong(1);
 
     /**
@@ -0,0 +1,281 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPlanResponse;
+import com.proshore.powerplantsystem.payloads.battery.DispatchPolicy;
+import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardingProperties;
+import com.proshore.powerplantsystem.repositories.battery.sharding.ShardContext;
+import com.proshore.powerplantsystem.services.battery.BatteryDispatchServiceImpl;
+import com.proshore.powerplantsystem.services.battery.DispatchCandidates;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BatteryDispatchServiceUnitTest {
+
+    @InjectMocks
+    private BatteryDispatchServiceImpl batteryDispatchService;
+
+    @Mock
+    private BatteryRepository batteryRepository;
+
+    @Spy
+    private BatteryShardRouter batteryShardRouter = new BatteryShardRouter(new BatteryShardingProperties(), mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+
+    // Capacities in descending order, as read from the capacity index
+    private final List<Battery> batteriesByCapacity = List.of(
+            battery(1L, "6107", 50000),
+            battery(2L, "6102", 40000),
+            battery(3L, "6057", 30000),
+            battery(4L, "6525", 20000),
+            battery(5L, "6058", 15000),
+            battery(6L, "6526", 5000)
+    );
+
+    @Test
+    public void testLargestFirstStopsOnceTargetIsCovered() {
+        DispatchPlanResponse plan = BatteryDispatchServiceImpl.selectBatteries(candidates(batteriesByCapacity), 85000, DispatchPolicy.LARGEST_FIRST);
+
+        assertTrue(plan.isTargetMet());
+        assertEquals(List.of(1L, 2L), ids(plan));
+        assertEquals(90000, plan.getSelectedWattCapacity());
+        assertEquals(2, plan.getScannedBatteries());
+    }
+
+    @Test
+    public void testFewestUnitsReplacesLastBatteryWithSmallestCoveringOne() {
+        DispatchPlanResponse plan = BatteryDispatchServiceImpl.selectBatteries(candidates(batteriesByCapacity), 64000, DispatchPolicy.FEWEST_UNITS);
+
+        // Two units are needed; 50000 plus 15000 covers the target with the least surplus
+        assertEquals(List.of(1L, 5L), ids(plan));
+        assertEquals(65000, plan.getSelectedWattCapacity());
+        assertEquals(3, plan.getScannedBatteries());
+    }
+
+    @Test
+    public void testPlanDispatchSeeksSmallestCoveringBattery() {
+        when(batteryRepository.findInPostcodeRangeByCapacityDescending(eq("6000"), eq("6999"), eq(Integer.MAX_VALUE), eq(Long.MAX_VALUE), any(Pageable.class)))
+                .thenReturn(List.of(battery(1L, "6107", 50000), battery(2L, "6102", 40000), battery(3L, "6057", 30000)));
+        when(batteryRepository.findSmallestCoveringInPostcodeRange(eq("6000"), eq("6999"), eq(14000), eq(40000), eq(2L), any(Pageable.class)))
+                .thenReturn(List.of(battery(5L, "6058", 15000)));
+
+        DispatchPlanResponse plan = batteryDispatchService.planDispatch(
+                new DispatchPlanRequestParams("6000", "6999", 64000L, DispatchPolicy.FEWEST_UNITS));
+
+        // 40000 is replaced by the smallest battery covering the remaining 14000 from there on
+        assertEquals(List.of(1L, 5L), ids(plan));
+        assertEquals(3, plan.getScannedBatteries());
+        verify(batteryRepository, times(1)).findSmallestCoveringInPostcodeRange(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testSpreadTakesOneBatteryPerRegionFirst() {
+        DispatchPlanResponse plan = BatteryDispatchServiceImpl.selectBatteries(candidates(batteriesByCapacity), 100000, DispatchPolicy.SPREAD);
+
+        // 6102 is the second battery of region 610, which waits until regions 605 and 652 have given one
+        assertEquals(List.of(1L, 3L, 4L), ids(plan));
+        assertEquals(100000, plan.getSelectedWattCapacity());
+    }
+
+    @Test
+    public void testSpreadFallsBackToSecondBatteryPerRegion() {
+        DispatchPlanResponse plan = BatteryDispatchServiceImpl.selectBatteries(candidates(batteriesByCapacity), 150000, DispatchPolicy.SPREAD);
+
+        // One battery from each of the regions 610, 605 and 652 covers 100000, the rest comes from second batteries
+        assertTrue(plan.isTargetMet());
+        assertEquals(List.of(1L, 3L, 4L, 2L, 5L), ids(plan));
+        assertEquals(155000, plan.getSelectedWattCapacity());
+    }
+
+    @Test
+    public void testPlanDispatchReadsAllRegionsWithOneQuery() {
+        when(batteryRepository.findRegionHeadsInPostcodeRange("6000", "6999", 0, 4))
+                .thenReturn(List.of(battery(3L, "6057", 30000), battery(5L, "6058", 15000), battery(1L, "6107", 50000), battery(2L, "6102", 40000)));
+
+        DispatchPlanResponse plan = batteryDispatchService.planDispatch(
+                new DispatchPlanRequestParams("6000", "6999", 100000L, DispatchPolicy.SPREAD));
+
+        assertEquals(List.of(1L, 3L, 2L), ids(plan));
+        assertEquals(120000, plan.getSelectedWattCapacity());
+        // Both regions were short of a first batch, so the shard was read once for all of them
+        verify(batteryRepository, times(1)).findRegionHeadsInPostcodeRange(any(), any(), anyInt(), anyInt());
+        verify(batteryRepository, never()).findInPostcodeRangeByCapacityDescending(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testPlanDispatchReadsFurtherRegionBatchesTogether() {
+        List<Battery> firstBatch = new ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            firstBatch.add(battery(id, "6057", 1000));
+        }
+        for (long id = 11; id <= 14; id++) {
+            firstBatch.add(battery(id, "6107", 1000));
+        }
+        when(batteryRepository.findRegionHeadsInPostcodeRange("6000", "6999", 0, 4)).thenReturn(firstBatch);
+        when(batteryRepository.findRegionHeadsInPostcodeRange("6000", "6999", 4, 12))
+                .thenReturn(List.of(battery(20L, "6057", 500), battery(21L, "6107", 500)));
+
+        DispatchPlanResponse plan = batteryDispatchService.planDispatch(
+                new DispatchPlanRequestParams("6000", "6999", 9000L, DispatchPolicy.SPREAD));
+
+        assertEquals(9000, plan.getSelectedWattCapacity());
+        assertEquals(10, plan.getBatteries().size());
+        // The fifth round needs a second batch, read once for both regions
+        verify(batteryRepository, times(2)).findRegionHeadsInPostcodeRange(any(), any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void testTargetNotMetWhenRangeIsTooSmall() {
+        DispatchPlanResponse plan = BatteryDispatchServiceImpl.selectBatteries(candidates(batteriesByCapacity), 1_000_000, DispatchPolicy.LARGEST_FIRST);
+
+        assertFalse(plan.isTargetMet());
+        assertEquals(6, plan.getBatteries().size());
+        assertEquals(160000, plan.getSelectedWattCapacity());
+    }
+
+    @Test
+    public void testPlanDispatchReadsPagesOnlyUntilCovered() {
+        List<Battery> firstPage = new ArrayList<>();
+        for (long id = 32; id >= 1; id--) {
+            firstPage.add(battery(id, "6100", 1000));
+        }
+        when(batteryRepository.findInPostcodeRangeByCapacityDescending(eq("6000"), eq("6999"), eq(Integer.MAX_VALUE), eq(Long.MAX_VALUE), any(Pageable.class)))
+                .thenReturn(firstPage);
+        when(batteryRepository.findInPostcodeRangeByCapacityDescending(eq("6000"), eq("6999"), eq(1000), eq(1L), any(Pageable.class)))
+                .thenReturn(List.of(battery(33L, "6200", 500)));
+
+        DispatchPlanResponse coveredByFirstPage = batteryDispatchService.planDispatch(
+                new DispatchPlanRequestParams("6000", "6999", 5000L, DispatchPolicy.LARGEST_FIRST));
+
+        assertEquals(5, coveredByFirstPage.getBatteries().size());
+        verify(batteryRepository, times(1)).findInPostcodeRangeByCapacityDescending(any(), any(), any(), any(), any());
+
+        DispatchPlanResponse needsSecondPage = batteryDispatchService.planDispatch(
+                new DispatchPlanRequestParams("6000", "6999", 32500L, DispatchPolicy.LARGEST_FIRST));
+
+        assertTrue(needsSecondPage.isTargetMet());
+        assertEquals(33, needsSecondPage.getBatteries().size());
+    }
+
+    @Test
+    public void testPlanDispatchMergesPagesOfTwoShards() {
+        List<Battery> westFirstPage = new ArrayList<>();
+        for (long id = 1; id <= 32; id++) {
+            westFirstPage.add(battery(id, "6100", 10000 - (int) id * 200));
+        }
+        Map<String, List<Battery>> pages = Map.of(
+                "shard-a@" + Integer.MAX_VALUE + "/" + Long.MAX_VALUE, List.of(battery(50L, "0800", 9900), battery(51L, "0870", 5000), battery(52L, "0872", 50)),
+                "shard-b@" + Integer.MAX_VALUE + "/" + Long.MAX_VALUE, westFirstPage,
+                "shard-b@3600/32", List.of(battery(33L, "6107", 100)));
+        when(batteryRepository.findInPostcodeRangeByCapacityDescending(eq("0000"), eq("9999"), any(), any(), any(Pageable.class)))
+                .thenAnswer(invocation -> pages.get(ShardContext.current() + "@" + invocation.getArgument(2) + "/" + invocation.getArgument(3)));
+
+        DispatchPlanResponse plan = shardedDispatchService().planDispatch(
+                new DispatchPlanRequestParams("0000", "9999", 1_000_000L, DispatchPolicy.LARGEST_FIRST));
+
+        // Batteries 25 and 51 on different shards have the same capacity, the higher id comes first
+        List<Long> expected = pages.values().stream().flatMap(List::stream)
+                .sorted(Comparator.comparing(Battery::getCapacity).thenComparing(Battery::getId).reversed())
+                .map(Battery::getId).toList();
+        assertEquals(36, plan.getBatteries().size());
+        assertEquals(expected, ids(plan));
+        verify(batteryRepository, times(3)).findInPostcodeRangeByCapacityDescending(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testPlanDispatchSkipsBatteryRepeatedOnLaterPage() {
+        List<Battery> firstPage = new ArrayList<>();
+        for (long id = 32; id >= 1; id--) {
+            firstPage.add(battery(id, "6100", 1000));
+        }
+        when(batteryRepository.findInPostcodeRangeByCapacityDescending(eq("6000"), eq("6999"), eq(Integer.MAX_VALUE), eq(Long.MAX_VALUE), any(Pageable.class)))
+                .thenReturn(firstPage);
+        // Battery 5 was lowered to 500 watts after the first page was read
+        when(batteryRepository.findInPostcodeRangeByCapacityDescending(eq("6000"), eq("6999"), eq(1000), eq(1L), any(Pageable.class)))
+                .thenReturn(List.of(battery(5L, "6100", 500), battery(33L, "6200", 500)));
+
+        DispatchPlanResponse plan = batteryDispatchService.planDispatch(
+                new DispatchPlanRequestParams("6000", "6999", 40000L, DispatchPolicy.LARGEST_FIRST));
+
+        assertFalse(plan.isTargetMet());
+        assertEquals(33, plan.getBatteries().size());
+        assertEquals(33, ids(plan).stream().distinct().count());
+        assertEquals(32500, plan.getSelectedWattCapacity());
+    }
+
+    private BatteryDispatchServiceImpl shardedDispatchService() {
+        BatteryShardingProperties batteryShardingProperties = new BatteryShardingProperties();
+        batteryShardingProperties.setEnabled(true);
+        batteryShardingProperties.setShards(List.of(shard("shard-a", "0000", "5999"), shard("shard-b", "6000", "9999")));
+        BatteryShardRouter shardedRouter = new BatteryShardRouter(batteryShardingProperties, mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+        return new BatteryDispatchServiceImpl(batteryRepository, shardedRouter);
+    }
+
+    private static BatteryShardingProperties.Shard shard(String name, String startPostcode, String endPostcode) {
+        BatteryShardingProperties.Shard shard = new BatteryShardingProperties.Shard();
+        shard.setName(name);
+        shard.setStartPostcode(startPostcode);
+        shard.setEndPostcode(endPostcode);
+        return shard;
+    }
+
+    private static DispatchCandidates candidates(List<Battery> batteriesByCapacity) {
+        return new DispatchCandidates() {
+            @Override
+            public Iterator<Battery> byCapacity() {
+                return batteriesByCapacity.iterator();
+            }
+
+            @Override
+            public List<Iterator<Battery>> byCapacityPerRegion() {
+                Map<String, List<Battery>> regions = new LinkedHashMap<>();
+                for (Battery battery : batteriesByCapacity) {
+                    String region = battery.getPostcode().substring(0, Math.min(3, battery.getPostcode().length()));
+                    regions.computeIfAbsent(region, key -> new ArrayList<>()).add(battery);
+                }
+                return regions.values().stream().map(List::iterator).toList();
+            }
+
+            @Override
+            public Optional<Battery> smallestCovering(long minCapacity, Battery from) {
+                return batteriesByCapacity.subList(batteriesByCapacity.indexOf(from), batteriesByCapacity.size()).stream()
+                        .filter(battery -> battery.getCapacity() >= minCapacity)
+                        .reduce((larger, smaller) -> smaller);
+            }
+        };
+    }
+
+    private static List<Long> ids(DispatchPlanResponse plan) {
+        return plan.getBatteries().stream().map(Battery::getId).toList();
+    }
+
+    private static Battery battery(Long id, String postcode, int capacity) {
+        Battery battery = new Battery("Battery " + id, postcode, capacity);
+        battery.setId(id);
+        return battery;
+    }
+}
@@ -0,0 +1,211 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetSnapshot;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetSnapshotStore;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetSnapshotStoreProperties;
+import com.proshore.powerplantsystem.services.battery.BatteryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class BatteryFleetSnapshotStoreUnitTest {
+
+    private static final Instant MODIFIED = Instant.ofEpochMilli(1_700_000_000_000L);
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+
+    private BatteryService batteryService;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private BatteryFleetSnapshot batteryFleetSnapshot;
+
+    private BatteryFleetSnapshotStore store;
+
+    @BeforeEach
+    public void setUp() {
+        path = directory.resolve("fleet.snapshot");
+        batteryService = mock(BatteryService.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        batteryFleetSnapshot = new BatteryFleetSnapshot();
+
+        BatteryFleetSnapshotStoreProperties properties = new BatteryFleetSnapshotStoreProperties();
+        properties.setEnabled(true);
+        properties.setPath(path);
+        properties.setInterval(Duration.ofHours(1));
+        properties.setCatchUpOverlap(Duration.ofMinutes(5));
+        store = new BatteryFleetSnapshotStore(batteryFleetSnapshot, batteryService, eventPublisher, properties);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    public void testWriteAndReadRoundTrip() throws IOException {
+        Battery withoutCapacity = new Battery();
+        withoutCapacity.setId(3L);
+        withoutCapacity.setName("Côte Est");
+        withoutCapacity.setPostcode("0800");
+
+        BatteryFleetSnapshotStore.write(path, List.of(battery(1L, "Cannington", "6107", 13500), withoutCapacity));
+        List<Battery> batteries = BatteryFleetSnapshotStore.read(path);
+
+        assertEquals(2, batteries.size());
+        assertEquals(1L, batteries.get(0).getId());
+        assertEquals("Cannington", batteries.get(0).getName());
+        assertEquals("6107", batteries.get(0).getPostcode());
+        assertEquals(13500, batteries.get(0).getCapacity());
+        assertEquals(MODIFIED, batteries.get(0).getLastModified());
+        assertEquals("Côte Est", batteries.get(1).getName());
+        assertNull(batteries.get(1).getCapacity());
+        assertNull(batteries.get(1).getLastModified());
+    }
+
+    @Test
+    public void testReadFleetCatchesUpOnModifiedBatteries() throws IOException {
+        BatteryFleetSnapshotStore.write(path, List.of(
+                battery(1L, "Cannington", "6107", 13500),
+                battery(2L, "Midland", "6057", 50500)
+        ));
+        when(batteryService.getBatteriesModifiedSince(MODIFIED.minus(Duration.ofMinutes(5))))
+                .thenReturn(List.of(battery(2L, "Midland", "6057", 40500), battery(4L, "Bentley", "6102", 85000)));
+
+        List<Battery> batteries = store.readFleet();
+
+        assertEquals(3, batteries.size());
+        assertEquals(40500, batteries.get(1).getCapacity());
+        assertEquals("Bentley", batteries.get(2).getName());
+        verify(batteryService, never()).getBatteries();
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToFullRead() throws IOException {
+        BatteryFleetSnapshotStore.write(path, List.of(battery(1L, "Cannington", "6107", 13500)));
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[20] ^= 1;
+        Files.write(path, bytes);
+        when(batteryService.getBatteries()).thenReturn(List.of(battery(1L, "Cannington", "6107", 13500)));
+
+        assertThrows(IOException.class, () -> BatteryFleetSnapshotStore.read(path));
+        assertEquals(1, store.readFleet().size());
+        verify(batteryService, times(1)).getBatteries();
+    }
+
+    @Test
+    public void testOldSnapshotFallsBackToFullRead() throws IOException {
+        BatteryFleetSnapshotStore.write(path, List.of(battery(1L, "Cannington", "6107", 13500)));
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        when(batteryService.getBatteries()).thenReturn(List.of(battery(1L, "Cannington", "6107", 15500)));
+
+        // The file may hold rows written through other instances since, so it is not trusted
+        assertEquals(15500, store.readFleet().get(0).getCapacity());
+        verify(batteryService, never()).getBatteriesModifiedSince(any());
+    }
+
+    @Test
+    public void testReconcilePublishesBatteriesChangedElsewhere() {
+        batteryFleetSnapshot.load(List.of(
+                battery(1L, "Cannington", "6107", 13500),
+                battery(2L, "Midland", "6057", 50500)
+        ));
+        Battery updatedElsewhere = battery(2L, "Midland", "6057", 40500);
+        updatedElsewhere.setLastModified(MODIFIED.plusSeconds(60));
+        Battery createdElsewhere = battery(4L, "Bentley", "6102", 85000);
+        when(batteryService.getBatteries()).thenReturn(List.of(battery(1L, "Cannington", "6107", 13500), updatedElsewhere, createdElsewhere));
+
+        assertEquals(2, store.reconcile());
+
+        ArgumentCaptor<BatteriesChangedEvent> event = ArgumentCaptor.forClass(BatteriesChangedEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(event.capture());
+        assertEquals(List.of(updatedElsewhere, createdElsewhere), event.getValue().getBatteries());
+    }
+
+    @Test
+    public void testReconcileReadsOnlyBatteriesModifiedSinceLastReconcile() {
+        when(batteryService.getBatteries()).thenReturn(List.of(battery(1L, "Cannington", "6107", 13500)));
+        Instant beforeRead = Instant.now();
+        batteryFleetSnapshot.load(store.readFleet());
+        Battery updatedElsewhere = battery(1L, "Cannington", "6107", 15500);
+        updatedElsewhere.setLastModified(MODIFIED.plusSeconds(60));
+        ArgumentCaptor<Instant> since = ArgumentCaptor.forClass(Instant.class);
+        when(batteryService.getBatteriesModifiedSince(since.capture())).thenReturn(List.of(updatedElsewhere), List.of());
+
+        assertEquals(1, store.reconcile());
+        assertEquals(0, store.reconcile());
+        assertTrue(batteryFleetSnapshot.isCurrent());
+
+        // Both reads start the overlap before the previous one, and the fleet is read in full only once
+        assertFalse(since.getAllValues().get(0).isBefore(beforeRead.minus(Duration.ofMinutes(5))));
+        assertFalse(since.getAllValues().get(1).isBefore(since.getAllValues().get(0)));
+        verify(batteryService, times(1)).getBatteries();
+    }
+
+    @Test
+    public void testPersistStreamsRowsLargerThanTheWriteBuffer() throws IOException {
+        List<Battery> batteries = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            batteries.add(battery(id, "Battery " + "x".repeat((int) (id % 50)) + id, String.format("%04d", id % 10000), (int) id));
+        }
+        Battery longName = battery(5001L, "n".repeat(100_000), "6107 ", 1);
+        batteries.add(longName);
+        batteryFleetSnapshot.load(batteries);
+
+        store.persist();
+
+        List<Battery> persisted = BatteryFleetSnapshotStore.read(path);
+        assertEquals(5001, persisted.size());
+        assertEquals("0042", persisted.get(41).getPostcode());
+        assertEquals(batteries.get(41).getName(), persisted.get(41).getName());
+        assertEquals(longName.getName(), persisted.get(5000).getName());
+        assertEquals("6107 ", persisted.get(5000).getPostcode());
+    }
+
+    @Test
+    public void testLoadedSnapshotIsNotCurrentBeforeReconciling() {
+        batteryFleetSnapshot.load(List.of(battery(1L, "Cannington", "6107", 13500)));
+        assertFalse(batteryFleetSnapshot.isCurrent());
+
+        when(batteryService.getBatteries()).thenReturn(List.of(battery(1L, "Cannington", "6107", 13500)));
+        store.reconcile();
+        assertTrue(batteryFleetSnapshot.isCurrent());
+    }
+
+    @Test
+    public void testPersistSkipsSnapshotThatWasNeverLoaded() throws IOException {
+        store.persist();
+        assertFalse(Files.exists(path));
+
+        batteryFleetSnapshot.load(List.of(battery(1L, "Cannington", "6107", 13500)));
+        store.persist();
+        assertEquals(1, BatteryFleetSnapshotStore.read(path).size());
+    }
+
+    private static Battery battery(Long id, String name, String postcode, int capacity) {
+        Battery battery = new Battery(name, postcode, capacity);
+        battery.setId(id);
+        battery.setLastModified(MODIFIED);
+        return battery;
+    }
+}
@@ -0,0 +1,150 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.exceptions.APIException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.CapacityHistogramResponse;
+import com.proshore.powerplantsystem.payloads.battery.PostcodePrefixTotalsResponse;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetSnapshot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatteryFleetSnapshotUnitTest {
+
+    private BatteryFleetSnapshot snapshot;
+
+    @BeforeEach
+    public void setUp() {
+        snapshot = new BatteryFleetSnapshot();
+        snapshot.load(List.of(
+                battery(1L, "Cannington", "6107", 13500),
+                battery(2L, "Midland", "6057", 50500),
+                battery(3L, "Mount Adams", "6525", 12000),
+                battery(4L, "Darwin", "0800", 5000)
+        ));
+    }
+
+    @Test
+    public void testCapacityHistogram() {
+        CapacityHistogramResponse histogram = snapshot.capacityHistogram(10000);
+
+        assertEquals(4, histogram.getBatteryCount());
+        assertEquals(6, histogram.getBuckets().size());
+        assertEquals(0, histogram.getBuckets().get(0).getLowerBound());
+        assertEquals(3, histogram.getBuckets().get(0).getCount() + histogram.getBuckets().get(1).getCount());
+        assertEquals(1, histogram.getBuckets().get(5).getCount());
+    }
+
+    @Test
+    public void testCapacityHistogramRejectsTooManyBuckets() {
+        assertThrows(APIException.class, () -> snapshot.capacityHistogram(1));
+    }
+
+    @Test
+    public void testPostcodePrefixTotals() {
+        PostcodePrefixTotalsResponse totals = snapshot.postcodePrefixTotals(2);
+
+        assertEquals(4, totals.getTotals().size());
+        assertEquals("08", totals.getTotals().get(0).getPrefix());
+        assertEquals("60", totals.getTotals().get(1).getPrefix());
+        assertEquals(50500, totals.getTotals().get(1).getTotalWattCapacity());
+        assertEquals("61", totals.getTotals().get(2).getPrefix());
+        assertEquals("65", totals.getTotals().get(3).getPrefix());
+    }
+
+    @Test
+    public void testChangesAreAppliedIncrementally() {
+        snapshot.onBatteriesChanged(new BatteriesChangedEvent(List.of(
+                battery(2L, "Midland", "6057", 40500),
+                battery(5L, "Bentley", "6102", 85000)
+        )));
+
+        PostcodePrefixTotalsResponse totals = snapshot.postcodePrefixTotals(1);
+
+        assertEquals(5, snapshot.size());
+        assertEquals("6", totals.getTotals().get(1).getPrefix());
+        assertEquals(4, totals.getTotals().get(1).getCount());
+        assertEquals(151000, totals.getTotals().get(1).getTotalWattCapacity());
+    }
+
+    @Test
+    public void testOlderChangeDoesNotReplaceNewerRow() {
+        Battery updated = battery(2L, "Midland", "6057", 40500);
+        updated.setLastModified(Instant.ofEpochMilli(1_700_000_060_000L));
+        Battery readEarlier = battery(2L, "Midland", "6057", 45500);
+        readEarlier.setLastModified(Instant.ofEpochMilli(1_700_000_000_000L));
+        snapshot.onBatteriesChanged(new BatteriesChangedEvent(List.of(updated)));
+
+        // A reconciliation read before the update must neither report nor apply its older copy
+        assertTrue(snapshot.outdatedBatteries(List.of(readEarlier, updated)).isEmpty());
+        snapshot.onBatteriesChanged(new BatteriesChangedEvent(List.of(readEarlier)));
+
+        assertEquals(40500, snapshot.batteries(List.of(2L)).get(2L).getCapacity());
+        assertEquals(List.of(5L), snapshot.outdatedBatteries(List.of(updated, battery(5L, "Bentley", "6102", 85000)))
+                .stream().map(Battery::getId).toList());
+    }
+
+    @Test
+    public void testSnapshotGrowsBeyondInitialCapacity() {
+        List<Battery> batteries = new ArrayList<>();
+        for (long id = 100; id < 5100; id++) {
+            batteries.add(battery(id, "Battery " + id, "6000", 1000));
+        }
+        snapshot.load(batteries);
+
+        assertEquals(5004, snapshot.size());
+        assertEquals(5003, snapshot.postcodePrefixTotals(1).getTotals().get(1).getCount());
+    }
+
+    @Test
+    public void testLookupAfterGrowingAndRenaming() {
+        List<Battery> batteries = new ArrayList<>();
+        for (long id = 100; id < 5100; id++) {
+            batteries.add(battery(id * 1024, "Battery " + id, "6000", 1000));
+        }
+        snapshot.load(batteries);
+        // Longer names no longer fit in place, so their bytes are appended and the old ones reclaimed
+        List<Battery> renamed = new ArrayList<>();
+        for (long id = 100; id < 5100; id++) {
+            renamed.add(battery(id * 1024, "Renamed battery number " + id, "6000", 2000));
+        }
+        snapshot.onBatteriesChanged(new BatteriesChangedEvent(renamed));
+
+        Map<Long, Battery> found = snapshot.batteries(List.of(1L, 100L * 1024, 5099L * 1024, 7L));
+        assertEquals(3, found.size());
+        assertEquals("Cannington", found.get(1L).getName());
+        assertEquals("Renamed battery number 100", found.get(100L * 1024).getName());
+        assertEquals(2000, found.get(5099L * 1024).getCapacity());
+        assertEquals(5004, snapshot.size());
+    }
+
+    @Test
+    public void testBatteriesAreExportedLosslessly() {
+        Battery nonNumeric = battery(6L, "Kingsford", "NSW 2032", 20000);
+        nonNumeric.setLastModified(Instant.ofEpochMilli(1_700_000_000_000L));
+        snapshot.onBatteriesChanged(new BatteriesChangedEvent(List.of(nonNumeric)));
+
+        List<Battery> batteries = snapshot.batteries();
+
+        assertEquals(5, batteries.size());
+        assertEquals("0800", batteries.get(3).getPostcode());
+        assertEquals("Darwin", batteries.get(3).getName());
+        assertNull(batteries.get(3).getLastModified());
+        assertEquals("NSW 2032", batteries.get(4).getPostcode());
+        assertEquals(20000, batteries.get(4).getCapacity());
+        assertEquals(nonNumeric.getLastModified(), batteries.get(4).getLastModified());
+    }
+
+    private static Battery battery(Long id, String name, String postcode, int capacity) {
+        Battery battery = new Battery(name, postcode, capacity);
+        battery.setId(id);
+        return battery;
+    }
+}
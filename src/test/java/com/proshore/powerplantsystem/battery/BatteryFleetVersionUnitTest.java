@@ -0,0 +1,45 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardingProperties;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetVersion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BatteryFleetVersionUnitTest {
+
+    private final BatteryRepository batteryRepository = mock(BatteryRepository.class);
+
+    private final BatteryShardRouter batteryShardRouter = new BatteryShardRouter(new BatteryShardingProperties(),
+            mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+
+    @Test
+    public void testETagIsSharedByInstancesAndChangesWithTheDatabase() {
+        BatteryFleetVersion oneInstance = new BatteryFleetVersion(batteryRepository, batteryShardRouter);
+        BatteryFleetVersion otherInstance = new BatteryFleetVersion(batteryRepository, batteryShardRouter);
+        when(batteryRepository.findMaxLastModified()).thenReturn(Instant.parse("2023-09-01T10:00:00.000001Z"));
+
+        String eTag = oneInstance.eTag("6000", "6999");
+        assertEquals(eTag, otherInstance.eTag("6000", "6999"));
+        assertNotEquals(eTag, oneInstance.eTag("6000", "6200"));
+
+        // A write through another instance is seen without any event reaching this one
+        when(batteryRepository.findMaxLastModified()).thenReturn(Instant.parse("2023-09-01T10:00:00.000002Z"));
+        assertNotEquals(eTag, oneInstance.eTag("6000", "6999"));
+    }
+
+    @Test
+    public void testETagOfEmptyFleet() {
+        when(batteryRepository.findMaxLastModified()).thenReturn(null);
+
+        assertEquals("W/\"0\"", new BatteryFleetVersion(batteryRepository, batteryShardRouter).eTag());
+    }
+}
@@ -0,0 +1,209 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.exceptions.ServiceOverloadedException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
+import com.proshore.powerplantsystem.payloads.battery.BatteryRangeFeedEvent;
+import com.proshore.powerplantsystem.services.battery.BatteryRangeFeed;
+import com.proshore.powerplantsystem.services.battery.BatteryRangeFeedProperties;
+import com.proshore.powerplantsystem.services.battery.BatteryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BatteryRangeFeedUnitTest {
+
+    private final BlockingQueue<BatteryRangeFeedEvent> sentEvents = new LinkedBlockingQueue<>();
+
+    private CountDownLatch sendAllowed;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BatteryRangeFeed batteryRangeFeed;
+
+    private Battery cannington;
+
+    @BeforeEach
+    public void setUp() {
+        cannington = battery(1L, "Cannington", "6107", 13500);
+        BatteryService batteryService = mock(BatteryService.class);
+        when(batteryService.getBatteriesInPostcodeRange(any()))
+                .thenReturn(new BatteriesInRangeResponse(List.of(cannington), 13500, 13500.0));
+
+        BatteryRangeFeedProperties properties = new BatteryRangeFeedProperties();
+        properties.setBufferSize(4);
+        properties.setMaxSubscribers(2);
+        sendAllowed = new CountDownLatch(0);
+        meterRegistry = new SimpleMeterRegistry();
+        batteryRangeFeed = new BatteryRangeFeed(batteryService, properties, meterRegistry) {
+            @Override
+            protected SseEmitter createEmitter(long timeoutMillis) {
+                return new CapturingEmitter();
+            }
+        };
+    }
+
+    @AfterEach
+    public void tearDown() {
+        batteryRangeFeed.shutdown();
+    }
+
+    @Test
+    public void testSubscriberReceivesSnapshotThenDeltas() throws Exception {
+        batteryRangeFeed.subscribe("6000", "6200");
+
+        BatteryRangeFeedEvent snapshot = nextEvent();
+        assertEquals(BatteryRangeFeedEvent.Type.SNAPSHOT, snapshot.getType());
+        assertEquals(1, snapshot.getBatteryCount());
+        assertEquals(13500, snapshot.getTotalWattCapacity());
+
+        publish(battery(2L, "Midland", "6057", 50500));
+        BatteryRangeFeedEvent added = nextEvent();
+        assertEquals(BatteryRangeFeedEvent.Type.ADDED, added.getType());
+        assertEquals("Midland", added.getBattery().getName());
+        assertEquals(2, added.getBatteryCount());
+        assertEquals(64000, added.getTotalWattCapacity());
+        assertEquals(32000.0, added.getAverageWattCapacity());
+
+        publish(battery(1L, "Cannington", "6107", 15500));
+        BatteryRangeFeedEvent changed = nextEvent();
+        assertEquals(BatteryRangeFeedEvent.Type.CHANGED, changed.getType());
+        assertEquals(66000, changed.getTotalWattCapacity());
+
+        publish(battery(2L, "Midland", "6525", 50500));
+        BatteryRangeFeedEvent removed = nextEvent();
+        assertEquals(BatteryRangeFeedEvent.Type.REMOVED, removed.getType());
+        assertEquals(1, removed.getBatteryCount());
+        assertEquals(15500, removed.getTotalWattCapacity());
+    }
+
+    @Test
+    public void testWritesOutsideTheRangeAreNotSent() throws Exception {
+        batteryRangeFeed.subscribe("6000", "6200");
+        nextEvent();
+
+        publish(battery(3L, "Mount Adams", "6525", 12000));
+
+        assertNull(sentEvents.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowSubscriberIsDropped() throws Exception {
+        sendAllowed = new CountDownLatch(1);
+        batteryRangeFeed.subscribe("6000", "6200");
+
+        // The first send blocks, so the buffer of four events overflows
+        for (long id = 10; id < 20; id++) {
+            publish(battery(id, "Battery " + id, "6100", 1000));
+        }
+
+        assertEquals(0, batteryRangeFeed.subscriberCount());
+        assertEquals(1.0, meterRegistry.counter("battery.feed.dropped").count());
+        sendAllowed.countDown();
+    }
+
+    @Test
+    public void testSubscriptionsAreLimited() {
+        batteryRangeFeed.subscribe("6000", "6200");
+        batteryRangeFeed.subscribe("6000", "6200");
+
+        assertThrows(ServiceOverloadedException.class, () -> batteryRangeFeed.subscribe("6000", "6200"));
+    }
+
+    @Test
+    public void testConcurrentSubscriptionsAreLimited() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> attempts = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                attempts.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        batteryRangeFeed.subscribe("6000", "6200");
+                        return true;
+                    } catch (ServiceOverloadedException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int admitted = 0;
+            for (Future<Boolean> attempt : attempts) {
+                admitted += attempt.get(5, TimeUnit.SECONDS) ? 1 : 0;
+            }
+
+            assertEquals(2, admitted);
+            assertEquals(2, batteryRangeFeed.subscriberCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDroppedSubscriberFreesItsSlot() throws Exception {
+        sendAllowed = new CountDownLatch(1);
+        batteryRangeFeed.subscribe("6000", "6200");
+        for (long id = 10; id < 20; id++) {
+            publish(battery(id, "Battery " + id, "6100", 1000));
+        }
+        sendAllowed.countDown();
+
+        batteryRangeFeed.subscribe("6000", "6200");
+        batteryRangeFeed.subscribe("6000", "6200");
+        assertThrows(ServiceOverloadedException.class, () -> batteryRangeFeed.subscribe("6000", "6200"));
+    }
+
+    private void publish(Battery battery) {
+        batteryRangeFeed.onBatteriesChanged(new BatteriesChangedEvent(List.of(battery)));
+    }
+
+    private BatteryRangeFeedEvent nextEvent() throws InterruptedException {
+        BatteryRangeFeedEvent event = sentEvents.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        return event;
+    }
+
+    private static Battery battery(Long id, String name, String postcode, Integer capacity) {
+        Battery battery = new Battery(name, postcode, capacity);
+        battery.setId(id);
+        return battery;
+    }
+
+    private class CapturingEmitter extends SseEmitter {
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                sendAllowed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            builder.build().stream()
+                    .map(DataWithMediaType::getData)
+                    .filter(BatteryRangeFeedEvent.class::isInstance)
+                    .map(BatteryRangeFeedEvent.class::cast)
+                    .forEach(sentEvents::add);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
+import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetVersion;
+import com.proshore.powerplantsystem.services.battery.BatteryRangeQueryCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class BatteryRangeQueryCoalescerUnitTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BatteryFleetVersion batteryFleetVersion;
+
+    private BatteryRangeQueryCoalescer coalescer;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        batteryFleetVersion = new BatteryFleetVersion(mock(BatteryRepository.class), mock(BatteryShardRouter.class));
+        coalescer = new BatteryRangeQueryCoalescer(meterRegistry, batteryFleetVersion);
+    }
+
+    @Test
+    public void testConcurrentIdenticalQueriesShareOneComputation() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        BatteriesInRangeResponse expected = new BatteriesInRangeResponse();
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<BatteriesInRangeResponse>> results = new ArrayList<>();
+            results.add(executor.submit(() -> coalescer.coalesce("6000", "6999", () -> {
+                computations.incrementAndGet();
+                leaderStarted.countDown();
+                awaitQuietly(releaseLeader);
+                return expected;
+            })));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> coalescer.coalesce("6000", "6999", () -> {
+                    computations.incrementAndGet();
+                    return new BatteriesInRangeResponse();
+                })));
+            }
+            while (meterRegistry.get("battery.range.requests").tag("outcome", "coalesced").counter().count() < 4) {
+                Thread.sleep(5);
+            }
+            releaseLeader.countDown();
+
+            for (Future<BatteriesInRangeResponse> result : results) {
+                assertSame(expected, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, computations.get());
+        assertEquals(0.8, coalescer.coalescingRatio(), 1e-9);
+    }
+
+    @Test
+    public void testQueriesAfterWriteDoNotJoinOlderComputation() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        BatteriesInRangeResponse beforeWrite = new BatteriesInRangeResponse();
+        BatteriesInRangeResponse afterWrite = new BatteriesInRangeResponse();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<BatteriesInRangeResponse> leader = executor.submit(() -> coalescer.coalesce("6000", "6999", () -> {
+                leaderStarted.countDown();
+                awaitQuietly(releaseLeader);
+                return beforeWrite;
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+            batteryFleetVersion.onBatteriesChanged(new BatteriesChangedEvent(List.of()));
+
+            assertSame(afterWrite, coalescer.coalesce("6000", "6999", () -> afterWrite));
+            releaseLeader.countDown();
+            assertSame(beforeWrite, leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsPropagatedAndNotCached() {
+        assertThrows(IllegalStateException.class, () -> coalescer.coalesce("6000", "6999", () -> {
+            throw new IllegalStateException("database unavailable");
+        }));
+
+        BatteriesInRangeResponse response = new BatteriesInRangeResponse();
+        assertSame(response, coalescer.coalesce("6000", "6999", () -> response));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,14 +2,21 @@ package com.proshore.powerplantsystem.battery;
 
 import com.proshore.powerplantsystem.model.battery.Battery;
 import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.PostcodePrefixAggregate;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
@@ -46,4 +53,148 @@ public class BatteryRepositoryUnitTest {
         // Verify that null is returned because the battery doesn't exist
         assertNull(foundBattery);
     }
+
+    @Test
+    public void testAggregateByPostcodePrefix() {
+
+        // Arrange: Insert batteries in and out of the requested postcode range
+        entityManager.persist(new Battery("Cannington", "6107", 13500));
+        entityManager.persist(new Battery("Bentley", "6102", 85000));
+        entityManager.persist(new Battery("Midland", "6057", 50500));
+        entityManager.persist(new Battery("Mount Adams", "6525", 12000));
+        entityManager.flush();
+
+        List<PostcodePrefixAggregate> aggregates = batteryRepository.aggregateByPostcodePrefix("6050", "6200");
+        aggregates.sort(Comparator.comparing(PostcodePrefixAggregate::getPrefix));
+
+        assertEquals(2, aggregates.size());
+        assertEquals("605", aggregates.get(0).getPrefix());
+        assertEquals(1L, aggregates.get(0).getBatteryCount());
+        assertEquals("610", aggregates.get(1).getPrefix());
+        assertEquals(2L, aggregates.get(1).getBatteryCount());
+        assertEquals(98500L, aggregates.get(1).getTotalWattCapacity());
+    }
+
+    @Test
+    public void testFindRegionHeadsInPostcodeRange() {
+
+        // Arrange: Insert batteries in and out of the requested postcode range, one of them without capacity
+        Battery cannington = entityManager.persist(new Battery("Cannington", "6107", 13500));
+        Battery bentley = entityManager.persist(new Battery("Bentley", "6102", 85000));
+        Battery armadale = entityManager.persist(new Battery("Armadale", "6112", 9000));
+        entityManager.persist(new Battery("Kelmscott", "6111", 0));
+        Battery midland = entityManager.persist(new Battery("Midland", "6057", 50500));
+        entityManager.persist(new Battery("Mount Adams", "6525", 12000));
+        entityManager.flush();
+
+        List<Battery> firstOfEveryRegion = batteryRepository.findRegionHeadsInPostcodeRange("6050", "6200", 0, 1);
+        List<Battery> secondOfEveryRegion = batteryRepository.findRegionHeadsInPostcodeRange("6050", "6200", 1, 2);
+
+        // Regions come in prefix order, each in descending capacity order, and Kelmscott has no capacity
+        assertEquals(List.of(midland.getId(), bentley.getId(), armadale.getId()), firstOfEveryRegion.stream().map(Battery::getId).toList());
+        assertEquals(List.of(cannington.getId()), secondOfEveryRegion.stream().map(Battery::getId).toList());
+    }
+
+    @Test
+    public void testFindByPostcodeBetweenOrderByNameAsc() {
+
+        // Arrange: Insert batteries in and out of the requested postcode range, out of name order
+        entityManager.persist(new Battery("Midland", "6057", 50500));
+        entityManager.persist(new Battery("Cannington", "6107", 13500));
+        entityManager.persist(new Battery("Mount Adams", "6525", 12000));
+        entityManager.persist(new Battery("Bentley", "6102", 85000));
+        entityManager.flush();
+
+        List<Battery> batteriesInRange = batteryRepository.findByPostcodeBetweenOrderByNameAsc("6057", "6107");
+
+        assertEquals(List.of("Bentley", "Cannington", "Midland"), batteriesInRange.stream().map(Battery::getName).toList());
+    }
+
+    @Test
+    public void testFindByLastModifiedGreaterThanEqual() {
+
+        // Arrange: Insert two batteries, their last modification time is set on insert
+        entityManager.persist(new Battery("Cannington", "6107", 13500));
+        entityManager.flush();
+        Battery midland = entityManager.persist(new Battery("Midland", "6057", 50500));
+        entityManager.flush();
+
+        List<Battery> modifiedBatteries = batteryRepository.findByLastModifiedGreaterThanEqual(midland.getLastModified());
+
+        assertTrue(modifiedBatteries.stream().anyMatch(battery -> battery.getPostcode().equals("6057")));
+        assertTrue(batteryRepository.findByLastModifiedGreaterThanEqual(midland.getLastModified().plusSeconds(60)).isEmpty());
+    }
+
+    @Test
+    public void testFindInPostcodeRangeByCapacityDescending() {
+
+        // Arrange: Insert batteries in and out of the requested postcode range, two of them with the same capacity
+        Battery bentley = entityManager.persist(new Battery("Bentley", "6102", 85000));
+        Battery cannington = entityManager.persist(new Battery("Cannington", "6107", 13500));
+        Battery kelmscott = entityManager.persist(new Battery("Kelmscott", "6111", 13500));
+        entityManager.persist(new Battery("Midland", "6057", 50500));
+        entityManager.flush();
+
+        List<Battery> firstPage = batteryRepository.findInPostcodeRangeByCapacityDescending("6100", "6200",
+                Integer.MAX_VALUE, Long.MAX_VALUE, PageRequest.of(0, 2));
+        Battery last = firstPage.get(1);
+        List<Battery> secondPage = batteryRepository.findInPostcodeRangeByCapacityDescending("6100", "6200",
+                last.getCapacity(), last.getId(), PageRequest.of(0, 2));
+
+        assertEquals(List.of(bentley.getId(), kelmscott.getId()), firstPage.stream().map(Battery::getId).toList());
+        assertEquals(List.of(cannington.getId()), secondPage.stream().map(Battery::getId).toList());
+    }
+
+    @Test
+    public void testFindSmallestCoveringInPostcodeRange() {
+
+        // Arrange: Insert batteries in and out of the requested postcode range, two of them with the same capacity
+        Battery bentley = entityManager.persist(new Battery("Bentley", "6102", 85000));
+        Battery cannington = entityManager.persist(new Battery("Cannington", "6107", 13500));
+        Battery kelmscott = entityManager.persist(new Battery("Kelmscott", "6111", 13500));
+        entityManager.persist(new Battery("Armadale", "6112", 9000));
+        entityManager.persist(new Battery("Midland", "6057", 12000));
+        entityManager.flush();
+
+        List<Battery> fromBentley = batteryRepository.findSmallestCoveringInPostcodeRange("6100", "6200", 10000,
+                bentley.getCapacity(), bentley.getId(), PageRequest.of(0, 1));
+        List<Battery> fromCannington = batteryRepository.findSmallestCoveringInPostcodeRange("6100", "6200", 10000,
+                cannington.getCapacity(), cannington.getId(), PageRequest.of(0, 2));
+
+        // Kelmscott comes before Cannington in descending capacity order, so it is not considered from there on
+        assertEquals(List.of(cannington.getId()), fromBentley.stream().map(Battery::getId).toList());
+        assertEquals(List.of(cannington.getId()), fromCannington.stream().map(Battery::getId).toList());
+        assertTrue(batteryRepository.findSmallestCoveringInPostcodeRange("6100", "6200", 90000,
+                bentley.getCapacity(), bentley.getId(), PageRequest.of(0, 1)).isEmpty());
+    }
+
+    @Test
+    public void testCapacityDescendingPagesCoverTheRangeOnce() {
+
+        // Arrange: Insert batteries in and out of the range, with capacities repeating so pages end within ties
+        List<Battery> inRange = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            Battery battery = entityManager.persist(new Battery("Battery " + i, String.format("61%02d", i), 1000 * (i % 4 + 1)));
+            inRange.add(battery);
+        }
+        entityManager.persist(new Battery("Midland", "6057", 50500));
+        entityManager.flush();
+
+        // Page through the range from the position after the last battery of every page
+        List<Battery> paged = new ArrayList<>();
+        Integer afterCapacity = Integer.MAX_VALUE;
+        Long afterId = Long.MAX_VALUE;
+        List<Battery> page;
+        do {
+            page = batteryRepository.findInPostcodeRangeByCapacityDescending("6100", "6199", afterCapacity, afterId, PageRequest.of(0, 5));
+            paged.addAll(page);
+            if (!page.isEmpty()) {
+                afterCapacity = page.get(page.size() - 1).getCapacity();
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == 5);
+
+        inRange.sort(Comparator.comparing(Battery::getCapacity).thenComparing(Battery::getId).reversed());
+        assertEquals(inRange.stream().map(Battery::getId).toList(), paged.stream().map(Battery::getId).toList());
+    }
 }
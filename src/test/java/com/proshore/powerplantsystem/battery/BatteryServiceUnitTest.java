@@ -1,19 +1,35 @@
 package com.proshore.powerplantsystem.battery;
 
+import com.proshore.powerplantsystem.events.battery.BatteriesChangedEvent;
 import com.proshore.powerplantsystem.exceptions.APIException;
 import com.proshore.powerplantsystem.exceptions.DataNotFoundException;
 import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesByIdsResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
 import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegion;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegionsResponse;
 import com.proshore.powerplantsystem.repositories.battery.BatteryRepository;
+import com.proshore.powerplantsystem.repositories.battery.PostcodePrefixAggregate;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardingProperties;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetSnapshot;
+import com.proshore.powerplantsystem.services.battery.BatteryFleetVersion;
+import com.proshore.powerplantsystem.services.battery.BatteryRangeQueryCoalescer;
 import com.proshore.powerplantsystem.services.battery.BatteryServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -31,6 +47,18 @@ public class BatteryServiceUnitTest {
     @Mock
     private BatteryRepository batteryRepository;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private BatteryRangeQueryCoalescer batteryRangeQueryCoalescer = new BatteryRangeQueryCoalescer(new SimpleMeterRegistry(), new BatteryFleetVersion(mock(BatteryRepository.class), mock(BatteryShardRouter.class)));
+
+    @Spy
+    private BatteryShardRouter batteryShardRouter = new BatteryShardRouter(new BatteryShardingProperties(), mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+
+    @Spy
+    private BatteryFleetSnapshot batteryFleetSnapshot = new BatteryFleetSnapshot();
+
     List<Battery> batteries = new ArrayList<>();
 
     @BeforeEach
@@ -69,6 +97,22 @@ public class BatteryServiceUnitTest {
 
         // Ensure that creating a new battery with the same postcode throws an APIException
         assertThrows(APIException.class, () -> batteryService.createBattery(newBattery));
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    public void testCreateBatteriesPublishesChangedEvent() {
+        List<Battery> batteries = Arrays.asList(
+                new Battery("Cannington", "6107", 13500),
+                new Battery("Midland", "6057", 50500)
+        );
+
+        when(batteryRepository.saveAll(batteries)).thenReturn(batteries);
+
+        batteryService.createBatteries(batteries);
+
+        // Listeners such as the fleet version must learn about every write
+        verify(eventPublisher, times(1)).publishEvent(any(BatteriesChangedEvent.class));
     }
 
     @Test
@@ -90,6 +134,23 @@ public class BatteryServiceUnitTest {
         assertEquals("Midland", savedBatteries.get(1).getName());
     }
 
+    @Test
+    public void testCreateBatteriesPublishesCommittedShardsWhenAnotherShardFails() {
+        BatteryServiceImpl shardedBatteryService = shardedBatteryService();
+        Battery darwin = new Battery("Darwin", "0800", 5000);
+        Battery cannington = new Battery("Cannington", "6107", 13500);
+
+        when(batteryRepository.saveAll(List.of(darwin))).thenReturn(List.of(darwin));
+        when(batteryRepository.saveAll(List.of(cannington))).thenThrow(new IllegalStateException("Shard unavailable"));
+
+        assertThrows(IllegalStateException.class, () -> shardedBatteryService.createBatteries(List.of(darwin, cannington)));
+
+        // The batteries committed on the healthy shard must still reach the listeners
+        ArgumentCaptor<BatteriesChangedEvent> event = ArgumentCaptor.forClass(BatteriesChangedEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(event.capture());
+        assertEquals(List.of(darwin), event.getValue().getBatteries());
+    }
+
     @Test
     public void testGetBattery() {
         Long batteryId = 1L;
@@ -107,6 +168,20 @@ public class BatteryServiceUnitTest {
         assertEquals(13500, retrievedBattery.getCapacity());
     }
 
+    @Test
+    public void testGetBatteryStopsAtFirstShardHoldingIt() {
+        BatteryServiceImpl shardedBatteryService = shardedBatteryService();
+        Long batteryId = 1L;
+        Battery battery = new Battery("Darwin", "0800", 5000);
+
+        when(batteryRepository.findById(batteryId)).thenReturn(Optional.of(battery));
+
+        assertEquals("Darwin", shardedBatteryService.getBattery(batteryId).getName());
+
+        // The first shard holds the battery, so the second shard is never queried
+        verify(batteryRepository, times(1)).findById(batteryId);
+    }
+
     @Test
     public void testGetBatteryNotFound() {
         Long batteryId = 1L;
@@ -117,6 +192,96 @@ public class BatteryServiceUnitTest {
         assertThrows(DataNotFoundException.class, () -> batteryService.getBattery(batteryId));
     }
 
+    @Test
+    public void testGetBatteriesByIds() {
+        Battery cannington = new Battery("Cannington", "6107", 13500);
+        cannington.setId(1L);
+        Battery midland = new Battery("Midland", "6057", 50500);
+        midland.setId(2L);
+        batteryFleetSnapshot.load(List.of(cannington));
+        batteryFleetSnapshot.markCurrentUntil(Instant.now().plusSeconds(60));
+
+        when(batteryRepository.findAllById(List.of(2L, 3L))).thenReturn(List.of(midland));
+
+        BatteriesByIdsResponse response = batteryService.getBatteriesByIds(Arrays.asList(2L, 1L, 3L, 2L, null));
+
+        // The snapshot serves id 1, so only the other distinct ids are queried
+        verify(batteryRepository, times(1)).findAllById(List.of(2L, 3L));
+        assertEquals(2, response.getBatteries().size());
+        assertEquals("Midland", response.getBatteries().get(0).getName());
+        assertEquals("Cannington", response.getBatteries().get(1).getName());
+        assertEquals(List.of(3L), response.getMissingIds());
+    }
+
+    @Test
+    public void testGetBatteriesByIdsSkipsSnapshotThatIsNotCurrent() {
+        Battery cannington = new Battery("Cannington", "6107", 13500);
+        cannington.setId(1L);
+        batteryFleetSnapshot.load(List.of(cannington));
+        batteryFleetSnapshot.markCurrentUntil(Instant.now().minusSeconds(1));
+        Battery renamedElsewhere = new Battery("Cannington North", "6107", 13500);
+        renamedElsewhere.setId(1L);
+
+        when(batteryRepository.findAllById(List.of(1L))).thenReturn(List.of(renamedElsewhere));
+
+        BatteriesByIdsResponse response = batteryService.getBatteriesByIds(List.of(1L));
+
+        // The last reconciliation is too old to trust the snapshot, so the shards are asked
+        verify(batteryRepository, times(1)).findAllById(List.of(1L));
+        assertEquals("Cannington North", response.getBatteries().get(0).getName());
+    }
+
+    @Test
+    public void testGetBatteriesByIdsQueriesInChunks() {
+        List<Long> batteryIds = new ArrayList<>();
+        for (long id = 1; id <= 450; id++) {
+            batteryIds.add(id);
+        }
+        when(batteryRepository.findAllById(anyList())).thenReturn(List.of());
+
+        BatteriesByIdsResponse response = batteryService.getBatteriesByIds(batteryIds);
+
+        verify(batteryRepository, times(3)).findAllById(anyList());
+        assertEquals(450, response.getMissingIds().size());
+    }
+
+    @Test
+    public void testUpdateBattery() {
+        Long batteryId = 1L;
+        Battery battery = new Battery("Cannington", "6107", 13500);
+        battery.setId(batteryId);
+        Battery newValues = new Battery("Cannington North", "6108", 15000);
+
+        when(batteryRepository.findById(batteryId)).thenReturn(Optional.of(battery));
+        when(batteryRepository.findByPostcode("6108")).thenReturn(null);
+        when(batteryRepository.save(battery)).thenReturn(battery);
+
+        Battery updatedBattery = batteryService.updateBattery(batteryId, newValues);
+
+        assertEquals(batteryId, updatedBattery.getId());
+        assertEquals("Cannington North", updatedBattery.getName());
+        assertEquals("6108", updatedBattery.getPostcode());
+        assertEquals(15000, updatedBattery.getCapacity());
+        verify(eventPublisher, times(1)).publishEvent(any(BatteriesChangedEvent.class));
+    }
+
+    @Test
+    public void testUpdateBatteryPostcodeTaken() {
+        Long batteryId = 1L;
+        Battery battery = new Battery("Cannington", "6107", 13500);
+        battery.setId(batteryId);
+        Battery otherBattery = new Battery("Midland", "6057", 50500);
+        otherBattery.setId(2L);
+
+        when(batteryRepository.findById(batteryId)).thenReturn(Optional.of(battery));
+        when(batteryRepository.findByPostcode("6057")).thenReturn(otherBattery);
+
+        // Moving a battery onto the postcode of another battery throws an APIException
+        assertThrows(APIException.class, () -> batteryService.updateBattery(batteryId, new Battery("Cannington", "6057", 13500)));
+        verify(batteryRepository, never()).save(any());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
     @Test
     public void testGetBatteriesInPostcodeRange() {
         List<Battery> batteries = Arrays.asList(
@@ -126,11 +291,13 @@ public class BatteryServiceUnitTest {
 
         BatteryRangeRequestParams requestParams = new BatteryRangeRequestParams("6050", "6200");
 
-        when(batteryRepository.findAll()).thenReturn(batteries);
+        when(batteryRepository.findByPostcodeBetweenOrderByNameAsc("6050", "6200")).thenReturn(batteries);
 
         BatteriesInRangeResponse response = batteryService.getBatteriesInPostcodeRange(requestParams);
 
-        verify(batteryRepository, times(1)).findAll();
+        // The range is filtered and sorted by the database, never by reading the whole table
+        verify(batteryRepository, times(1)).findByPostcodeBetweenOrderByNameAsc("6050", "6200");
+        verify(batteryRepository, never()).findAll();
 
         assertNotNull(response);
         assertNotNull(response.getBatteriesInRange());
@@ -146,11 +313,27 @@ public class BatteryServiceUnitTest {
 
         BatteryRangeRequestParams requestParams = new BatteryRangeRequestParams("6050", "6200");
 
-        when(batteryRepository.findAll()).thenReturn(batteries);
+        when(batteryRepository.findByPostcodeBetweenOrderByNameAsc("6050", "6200")).thenReturn(List.of());
 
         BatteriesInRangeResponse response = batteryService.getBatteriesInPostcodeRange(requestParams);
 
-        verify(batteryRepository, times(1)).findAll();
+        verify(batteryRepository, times(1)).findByPostcodeBetweenOrderByNameAsc("6050", "6200");
+
+        assertNotNull(response);
+        assertNotNull(response.getBatteriesInRange());
+        assertEquals(0, response.getBatteriesInRange().size());
+        assertEquals(0, response.getTotalWattCapacity());
+        assertEquals(0.0, response.getAverageWattCapacity());
+    }
+
+    @Test
+    public void testGetBatteriesInPostcodeRangeSubset() {
+
+        BatteryRangeRequestParams requestParams = new BatteryRangeRequestParams("6050", "6200");
+
+        when(batteryRepository.findByPostcodeBetweenOrderByNameAsc("6050", "6200")).thenReturn(List.of(batteries.get(0), batteries.get(1)));
+
+        BatteriesInRangeResponse response = batteryService.getBatteriesInPostcodeRange(requestParams);
 
         assertNotNull(response);
         assertNotNull(response.getBatteriesInRange());
@@ -184,4 +367,66 @@ public class BatteryServiceUnitTest {
 
         assertEquals(25333.333333333332, totalWattCapacity);
     }
+
+    @Test
+    public void testCalculatePostcodeRegions() {
+        List<PostcodePrefixAggregate> aggregates = Arrays.asList(
+                new PostcodePrefixAggregate("610", 2L, 27000L),
+                new PostcodePrefixAggregate("605", 1L, 50500L),
+                new PostcodePrefixAggregate("652", 1L, 12000L),
+                new PostcodePrefixAggregate("080", 1L, 5000L)
+        );
+
+        PostcodeRegionsResponse response = BatteryServiceImpl.calculatePostcodeRegions(aggregates);
+
+        assertEquals(5, response.getBatteryCount());
+        assertEquals(94500, response.getTotalWattCapacity());
+        assertEquals(2, response.getRegions().size());
+
+        PostcodeRegion region6 = response.getRegions().get(1);
+        assertEquals("6", region6.getPrefix());
+        assertEquals(4, region6.getBatteryCount());
+        assertEquals(89500, region6.getTotalWattCapacity());
+        assertEquals(List.of("60", "61", "65"), region6.getRegions().stream().map(PostcodeRegion::getPrefix).toList());
+        assertEquals("610", region6.getRegions().get(1).getRegions().get(0).getPrefix());
+        assertEquals(27000, region6.getRegions().get(1).getRegions().get(0).getTotalWattCapacity());
+    }
+
+    @Test
+    public void testGetPostcodeRegionsInRangeTrimsPostcodes() {
+        when(batteryRepository.aggregateByPostcodePrefix("6050", "6200"))
+                .thenReturn(List.of(new PostcodePrefixAggregate("610", 2L, 27000L)));
+
+        PostcodeRegionsResponse response = batteryService.getPostcodeRegionsInRange(new BatteryRangeRequestParams(" 6050", "6200 "));
+
+        verify(batteryRepository, times(1)).aggregateByPostcodePrefix("6050", "6200");
+        assertEquals(2, response.getBatteryCount());
+    }
+
+    @Test
+    public void testMergeSortedByName() {
+        List<Battery> merged = BatteryServiceImpl.mergeSortedByName(List.of(
+                List.of(new Battery("Bentley", "6102", 85000), new Battery("Midland", "6057", 50500)),
+                List.of(),
+                List.of(new Battery("Albany", "6330", 20000), new Battery("Cannington", "6107", 13500))
+        ));
+
+        assertEquals(List.of("Albany", "Bentley", "Cannington", "Midland"), merged.stream().map(Battery::getName).toList());
+    }
+
+    private BatteryServiceImpl shardedBatteryService() {
+        BatteryShardingProperties batteryShardingProperties = new BatteryShardingProperties();
+        batteryShardingProperties.setEnabled(true);
+        batteryShardingProperties.setShards(List.of(shard("shard-a", "0000", "5999"), shard("shard-b", "6000", "9999")));
+        BatteryShardRouter shardedRouter = new BatteryShardRouter(batteryShardingProperties, mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+        return new BatteryServiceImpl(batteryRepository, eventPublisher, batteryRangeQueryCoalescer, shardedRouter, batteryFleetSnapshot);
+    }
+
+    private static BatteryShardingProperties.Shard shard(String name, String startPostcode, String endPostcode) {
+        BatteryShardingProperties.Shard shard = new BatteryShardingProperties.Shard();
+        shard.setName(name);
+        shard.setStartPostcode(startPostcode);
+        shard.setEndPostcode(endPostcode);
+        return shard;
+    }
 }
@@ -0,0 +1,91 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardRouter;
+import com.proshore.powerplantsystem.repositories.battery.sharding.BatteryShardingProperties;
+import com.proshore.powerplantsystem.repositories.battery.sharding.ShardOutcome;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class BatteryShardRouterUnitTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final BatteryShardRouter batteryShardRouter = new BatteryShardRouter(shardingProperties(), mock(PlatformTransactionManager.class), meterRegistry);
+
+    @AfterEach
+    public void tearDown() {
+        batteryShardRouter.shutdown();
+    }
+
+    @Test
+    public void testOnShardsRunsFirstShardOnCallerThread() {
+        String callerThread = Thread.currentThread().getName();
+
+        List<String> threads = batteryShardRouter.onShards(batteryShardRouter.allShards(), shard -> Thread.currentThread().getName());
+
+        // Results keep the shard order, and only the shards after the first use the executor
+        assertEquals(3, threads.size());
+        assertEquals(callerThread, threads.get(0));
+        assertTrue(threads.get(1).startsWith("battery-shard-"));
+        assertTrue(threads.get(2).startsWith("battery-shard-"));
+    }
+
+    @Test
+    public void testExecutorIsSizedFromConfigurationAndMetered() {
+        // Two shards beyond the first, with two concurrent requests each
+        assertEquals(4.0, meterRegistry.get("executor.pool.max").tag("name", "battery.shard").gauge().value());
+        assertNotNull(meterRegistry.get("executor.queue.remaining").tag("name", "battery.shard").gauge());
+    }
+
+    @Test
+    public void testOnShardsSettledWaitsForEveryShard() {
+        List<ShardOutcome<String>> outcomes = batteryShardRouter.onShardsSettled(batteryShardRouter.allShards(), shard -> {
+            if (shard.equals("shard-b")) {
+                throw new IllegalStateException("Shard unavailable");
+            }
+            return shard;
+        });
+
+        assertEquals(List.of(true, false, true), outcomes.stream().map(ShardOutcome::succeeded).toList());
+        assertEquals("shard-c", outcomes.get(2).result());
+        assertEquals("Shard unavailable", outcomes.get(1).failure().getMessage());
+    }
+
+    @Test
+    public void testOnShardFailsInsideExistingTransaction() {
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertThrows(IllegalStateException.class, () -> batteryShardRouter.onShard("shard-a", () -> "joined"));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+    }
+
+    private static BatteryShardingProperties shardingProperties() {
+        BatteryShardingProperties batteryShardingProperties = new BatteryShardingProperties();
+        batteryShardingProperties.setEnabled(true);
+        batteryShardingProperties.setConcurrentRequests(2);
+        batteryShardingProperties.setQueueCapacity(4);
+        batteryShardingProperties.setShards(List.of(
+                shard("shard-a", "0000", "5999"),
+                shard("shard-b", "6000", "6499"),
+                shard("shard-c", "6500", "9999")));
+        return batteryShardingProperties;
+    }
+
+    private static BatteryShardingProperties.Shard shard(String name, String startPostcode, String endPostcode) {
+        BatteryShardingProperties.Shard shard = new BatteryShardingProperties.Shard();
+        shard.setName(name);
+        shard.setStartPostcode(startPostcode);
+        shard.setEndPostcode(endPostcode);
+        return shard;
+    }
+}
@@ -0,0 +1,121 @@
+package com.proshore.powerplantsystem.battery;
+
+import com.proshore.powerplantsystem.exceptions.APIException;
+import com.proshore.powerplantsystem.model.battery.Battery;
+import com.proshore.powerplantsystem.payloads.battery.BatteriesInRangeResponse;
+import com.proshore.powerplantsystem.payloads.battery.BatteryRangeRequestParams;
+import com.proshore.powerplantsystem.payloads.battery.PostcodeRegionsResponse;
+import com.proshore.powerplantsystem.repositories.battery.sharding.ShardRoutingDataSource;
+import com.proshore.powerplantsystem.services.battery.BatteryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the BatteryService against three embedded H2 databases partitioned by postcode range.
+ */
+@SpringBootTest(properties = {
+        "battery.sharding.enabled=true",
+        "spring.jpa.hibernate.ddl-auto=none",
+        "battery.sharding.shards[0].name=shard-a",
+        "battery.sharding.shards[0].start-postcode=0000",
+        "battery.sharding.shards[0].end-postcode=5999",
+        "battery.sharding.shards[0].url=jdbc:h2:mem:shard_a;DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:sharding/schema-shard-a.sql'",
+        "battery.sharding.shards[0].username=sa",
+        "battery.sharding.shards[0].driver-class-name=org.h2.Driver",
+        "battery.sharding.shards[1].name=shard-b",
+        "battery.sharding.shards[1].start-postcode=6000",
+        "battery.sharding.shards[1].end-postcode=6499",
+        "battery.sharding.shards[1].url=jdbc:h2:mem:shard_b;DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:sharding/schema-shard-b.sql'",
+        "battery.sharding.shards[1].username=sa",
+        "battery.sharding.shards[1].driver-class-name=org.h2.Driver",
+        "battery.sharding.shards[2].name=shard-c",
+        "battery.sharding.shards[2].start-postcode=6500",
+        "battery.sharding.shards[2].end-postcode=9999",
+        "battery.sharding.shards[2].url=jdbc:h2:mem:shard_c;DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:sharding/schema-shard-c.sql'",
+        "battery.sharding.shards[2].username=sa",
+        "battery.sharding.shards[2].driver-class-name=org.h2.Driver"
+})
+public class BatteryShardingIntegrationTest {
+
+    @Autowired
+    private BatteryService batteryService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    public void setUp() {
+        for (String shard : List.of("shard-a", "shard-b", "shard-c")) {
+            shardJdbcTemplate(shard).update("DELETE FROM battery");
+        }
+        batteryService.createBatteries(List.of(
+                new Battery("Darwin", "0800", 5000),
+                new Battery("Midland", "6057", 50500),
+                new Battery("Cannington", "6107", 13500),
+                new Battery("Mount Adams", "6525", 12000),
+                new Battery("Albany", "6330", 20000)
+        ));
+    }
+
+    @Test
+    public void testBatteriesAreStoredOnOwningShard() {
+        assertEquals(1, countBatteries("shard-a"));
+        assertEquals(3, countBatteries("shard-b"));
+        assertEquals(1, countBatteries("shard-c"));
+
+        batteryService.createBattery(new Battery("Koolan Island", "6733", 10000));
+
+        assertEquals(2, countBatteries("shard-c"));
+        assertEquals(6, batteryService.getBatteries().size());
+    }
+
+    @Test
+    public void testCreateBatteryRejectsDuplicatePostcodeOnOwningShard() {
+        assertThrows(APIException.class, () -> batteryService.createBattery(new Battery("Bentley", "6525", 85000)));
+    }
+
+    @Test
+    public void testGetBatteryFindsBatteryOnAnyShard() {
+        Long batteryId = shardJdbcTemplate("shard-c").queryForObject("SELECT id FROM battery WHERE postcode = '6525'", Long.class);
+
+        Battery battery = batteryService.getBattery(batteryId);
+
+        assertEquals("Mount Adams", battery.getName());
+    }
+
+    @Test
+    public void testRangeQueryMergesOverlappingShards() {
+        BatteriesInRangeResponse response = batteryService.getBatteriesInPostcodeRange(new BatteryRangeRequestParams("0800", "6600"));
+
+        assertEquals(List.of("Albany", "Cannington", "Darwin", "Midland", "Mount Adams"),
+                response.getBatteriesInRange().stream().map(Battery::getName).toList());
+        assertEquals(101000, response.getTotalWattCapacity());
+        assertEquals(20200, response.getAverageWattCapacity());
+    }
+
+    @Test
+    public void testRegionsMergeOverlappingShards() {
+        PostcodeRegionsResponse response = batteryService.getPostcodeRegionsInRange(new BatteryRangeRequestParams("6000", "6999"));
+
+        assertEquals(4, response.getBatteryCount());
+        assertEquals(96000, response.getTotalWattCapacity());
+        assertEquals("6", response.getRegions().get(0).getPrefix());
+        assertEquals(4, response.getRegions().get(0).getRegions().size());
+    }
+
+    private int countBatteries(String shard) {
+        return shardJdbcTemplate(shard).queryForObject("SELECT COUNT(*) FROM battery", Integer.class);
+    }
+
+    private JdbcTemplate shardJdbcTemplate(String shard) {
+        return new JdbcTemplate(((ShardRoutingDataSource) dataSource).getResolvedDataSources().get(shard));
+    }
+}
@@ -0,0 +1,8 @@
+-- Ids step by the number of shards from a per-shard offset, so they are unique across shards
+CREATE TABLE IF NOT EXISTS battery (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 3 INCREMENT BY 3) PRIMARY KEY,
+    name VARCHAR(255),
+    postcode VARCHAR(255),
+    capacity INTEGER,
+    last_modified TIMESTAMP(6) WITH TIME ZONE
+);